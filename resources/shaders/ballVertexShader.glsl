@@ -0,0 +1,28 @@
+#version 330 core
+
+// One corner of the unit quad, shared by every ball
+layout(location = 0) in vec2 corner;
+// Per ball
+layout(location = 1) in vec2 ballPosition;
+layout(location = 2) in uint ballColour;
+
+out vec3 colourTemplate;
+out vec2 UV;
+
+uniform mat4 MVP;
+uniform float radius;
+uniform float depth;
+
+void main() {
+
+    gl_Position =  MVP * vec4(ballPosition + corner * radius, depth, 1);
+
+    // The colour is packed as 0xRRGGBB
+    colourTemplate = vec3(
+        float((ballColour >> 16) & 0xFFu),
+        float((ballColour >> 8) & 0xFFu),
+        float(ballColour & 0xFFu)) / 255.0;
+
+    // The ball is the bottom right corner of the texture
+    UV = vec2(0.75) + corner * 0.25;
+}
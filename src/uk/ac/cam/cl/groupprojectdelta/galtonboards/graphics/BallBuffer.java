@@ -0,0 +1,128 @@
+package uk.ac.cam.cl.groupprojectdelta.galtonboards.graphics;
+
+import static org.lwjgl.system.MemoryUtil.memAlloc;
+import static org.lwjgl.system.MemoryUtil.memFree;
+import static org.lwjgl.system.MemoryUtil.memRealloc;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Per-ball data for the instanced ball pass: the position of each ball (x, y) and its colour packed as 0xRRGGBB,
+ * 12 bytes a ball. The shader turns each of these into a textured quad, so the CPU never builds the balls' vertices.
+ * Like MeshBuffer, the memory is allocated outside the Java heap and reused from frame to frame.
+ *
+ * A frame is written with begin(), then Simulation.writeBallInstances(), then end().
+ */
+public final class BallBuffer {
+
+  /** Bytes per ball: two floats and an int. */
+  static final int STRIDE = 2 * Float.BYTES + Integer.BYTES;
+
+  private static final int INITIAL_CAPACITY = 1024;
+
+  private final boolean direct;
+  private ByteBuffer data;
+  private int capacity;
+  private int ballCount;
+
+  /**
+   * Create a buffer in native memory, which has to be freed with free().
+   */
+  public BallBuffer() {
+    this(INITIAL_CAPACITY, true);
+  }
+
+  /**
+   * Create a buffer.
+   *
+   * @param capacity The number of balls to make room for.
+   * @param direct   Whether to allocate native memory (for OpenGL) or use the heap.
+   */
+  BallBuffer(int capacity, boolean direct) {
+    this.direct = direct;
+    this.capacity = Math.max(capacity, 1);
+    data = allocate(this.capacity * STRIDE);
+  }
+
+  /**
+   * Start writing a frame, discarding the last one.
+   *
+   * @param expectedBalls How many balls are going to be written, so the buffer only needs to grow once.
+   */
+  public void begin(int expectedBalls) {
+    reserve(expectedBalls);
+    data.clear();
+    ballCount = 0;
+  }
+
+  /**
+   * Finish writing a frame, so the buffer can be read from the start.
+   */
+  public void end() {
+    data.flip();
+  }
+
+  /**
+   * Write one ball.
+   *
+   * @param x      The x coordinate of the ball's corner.
+   * @param y      The y coordinate of the ball's corner.
+   * @param colour The ball's colour as 0xRRGGBB.
+   */
+  public void ball(float x, float y, int colour) {
+    if (ballCount == capacity) {
+      // Something wrote more than it said it would
+      reserve(capacity * 2);
+    }
+    data.putFloat(x).putFloat(y).putInt(colour);
+    ballCount++;
+  }
+
+  public int getBallCount() {
+    return ballCount;
+  }
+
+  /**
+   * Getter for the per-ball data, STRIDE bytes per ball. Only valid after end().
+   *
+   * @return The data.
+   */
+  public ByteBuffer getData() {
+    return data;
+  }
+
+  /**
+   * Release the native memory. The buffer can't be used afterwards.
+   */
+  public void free() {
+    if (direct) {
+      memFree(data);
+    }
+    data = null;
+  }
+
+  private void reserve(int balls) {
+    if (balls <= capacity) {
+      return;
+    }
+    capacity = Math.max(balls, capacity + capacity / 2);
+    int position = data.position();
+    ByteBuffer grown;
+    if (direct) {
+      grown = memRealloc(data, capacity * STRIDE);
+    } else {
+      grown = ByteBuffer.allocate(capacity * STRIDE).order(ByteOrder.nativeOrder());
+      data.flip();
+      grown.put(data);
+    }
+    grown.limit(capacity * STRIDE);
+    grown.position(position);
+    data = grown;
+  }
+
+  private ByteBuffer allocate(int bytes) {
+    // memAlloc already uses the native byte order, which is what OpenGL reads
+    return direct ? memAlloc(bytes) : ByteBuffer.allocate(bytes).order(ByteOrder.nativeOrder());
+  }
+}
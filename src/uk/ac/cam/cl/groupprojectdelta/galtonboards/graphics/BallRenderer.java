@@ -0,0 +1,100 @@
+package uk.ac.cam.cl.groupprojectdelta.galtonboards.graphics;
+
+import static org.lwjgl.opengl.GL33.*;
+
+/**
+ * Draws every ball with one instanced draw call. A single unit quad is kept on the GPU, and each frame only the
+ * balls' positions and colours (see BallBuffer) are uploaded; the vertex shader moves and colours a copy of the
+ * quad for each ball. This uploads 12 bytes a ball instead of the 192 bytes of six full vertices.
+ */
+final class BallRenderer {
+
+  // The unit quad, as the two triangles MeshBuffer.quad() makes
+  private static final float[] CORNERS = {
+      0, 0,  1, 0,  1, 1,
+      0, 0,  0, 1,  1, 1
+  };
+
+  private final int programID;
+  private final int vertexShaderID;
+  private final int fragmentShaderID;
+  private final int mvpShaderLocation;
+  private final int radiusShaderLocation;
+  private final int depthShaderLocation;
+
+  private final int vao;
+  private final int cornerBuffer;
+  private final StreamingBuffer instanceBuffer = new StreamingBuffer();
+
+  /**
+   * Compile the ball shaders and set up the buffers. Needs a current OpenGL 3.3 context.
+   *
+   * @param vertexShaderPath   The ball vertex shader's file name.
+   * @param fragmentShaderPath The fragment shader's file name, the balls are shaded like everything else.
+   */
+  BallRenderer(String vertexShaderPath, String fragmentShaderPath) {
+    programID = glCreateProgram();
+    vertexShaderID = WindowBoards.loadShader(programID, vertexShaderPath, GL_VERTEX_SHADER);
+    fragmentShaderID = WindowBoards.loadShader(programID, fragmentShaderPath, GL_FRAGMENT_SHADER);
+    glLinkProgram(programID);
+    if (glGetProgrami(programID, GL_LINK_STATUS) == GL_FALSE)
+      throw new RuntimeException("Unable to link ball shader program:\n" + glGetProgramInfoLog(programID));
+
+    mvpShaderLocation = glGetUniformLocation(programID, "MVP");
+    radiusShaderLocation = glGetUniformLocation(programID, "radius");
+    depthShaderLocation = glGetUniformLocation(programID, "depth");
+
+    // The attribute layout never changes, so it is recorded in a vertex array once
+    vao = glGenVertexArrays();
+    glBindVertexArray(vao);
+
+    cornerBuffer = glGenBuffers();
+    glBindBuffer(GL_ARRAY_BUFFER, cornerBuffer);
+    glBufferData(GL_ARRAY_BUFFER, CORNERS, GL_STATIC_DRAW);
+    glVertexAttribPointer(0, 2, GL_FLOAT, false, 0, 0);
+    glEnableVertexAttribArray(0);
+
+    // The instance attributes are pointed at this frame's data in draw()
+    glEnableVertexAttribArray(1);
+    glVertexAttribDivisor(1, 1);
+    glEnableVertexAttribArray(2);
+    glVertexAttribDivisor(2, 1);
+
+    glBindVertexArray(0);
+  }
+
+  /**
+   * Upload the balls and draw them. Leaves the ball program and vertex array bound.
+   *
+   * @param balls  The balls to draw, after end().
+   * @param mvp    The model view projection matrix, column major.
+   * @param radius The size of a ball.
+   */
+  void draw(BallBuffer balls, float[] mvp, float radius) {
+    if (balls.getBallCount() == 0) {
+      return;
+    }
+    glUseProgram(programID);
+    glUniformMatrix4fv(mvpShaderLocation, false, mvp);
+    glUniform1f(radiusShaderLocation, radius);
+    glUniform1f(depthShaderLocation, Drawable.z);
+
+    glBindVertexArray(vao);
+    long offset = instanceBuffer.upload(balls.getData());
+    glVertexAttribPointer(1, 2, GL_FLOAT, false, BallBuffer.STRIDE, offset);
+    glVertexAttribIPointer(2, 1, GL_UNSIGNED_INT, BallBuffer.STRIDE, offset + 2 * Float.BYTES);
+    glDrawArraysInstanced(GL_TRIANGLES, 0, 6, balls.getBallCount());
+  }
+
+  void destroy() {
+    glDeleteVertexArrays(vao);
+    glDeleteBuffers(cornerBuffer);
+    instanceBuffer.destroy();
+
+    glDetachShader(programID, vertexShaderID);
+    glDetachShader(programID, fragmentShaderID);
+    glDeleteShader(vertexShaderID);
+    glDeleteShader(fragmentShaderID);
+    glDeleteProgram(programID);
+  }
+}
@@ -1,13 +1,24 @@
 package uk.ac.cam.cl.groupprojectdelta.galtonboards.graphics;
 
-import java.util.List;
-
 public interface Drawable {
 
   float z = 1;
 
-  List<Float> getMesh(float time);
-  List<Float> getUV();
-  List<Float> getColourTemplate();
+  /**
+   * Get how many vertices writeMesh() will write, so the buffer can be sized before anything is written.
+   * This may be more than are actually written (e.g. balls that turn out to be hidden), but shouldn't be fewer.
+   *
+   * @return The number of vertices (4 per quad or triangle, see MeshBuffer).
+   */
+  int getVertexCount();
+
+  /**
+   * Write this element's quads and triangles (position, texture coordinate and colour of each vertex) into a buffer.
+   * This is called every frame, so it shouldn't allocate.
+   *
+   * @param time   The current time.
+   * @param buffer The buffer to write into.
+   */
+  void writeMesh(float time, MeshBuffer buffer);
 
-}
\ No newline at end of file
+}
@@ -18,6 +18,7 @@ public class Main {
     WindowBoards wb = new WindowBoards(width, height,
         "resources/shaders/vertexShader.glsl",
         "resources/shaders/fragmentShader.glsl",
+        "resources/shaders/ballVertexShader.glsl",
         "resources/textures/texture.png"
     );
 
@@ -0,0 +1,196 @@
+package uk.ac.cam.cl.groupprojectdelta.galtonboards.graphics;
+
+import static org.lwjgl.opengl.GL20.*;
+import static org.lwjgl.system.MemoryUtil.memAlloc;
+import static org.lwjgl.system.MemoryUtil.memFree;
+import static org.lwjgl.system.MemoryUtil.memRealloc;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Vertex data for a frame, written by Drawables straight into a buffer that can be handed to OpenGL.
+ * The buffer is allocated outside the Java heap with MemoryUtil and reused from frame to frame,
+ * so drawing doesn't create any garbage once it's big enough.
+ *
+ * The vertices are interleaved, 20 bytes each:
+ *  - the position (x, y, z) as 3 floats,
+ *  - the texture coordinate (u, v) as 2 normalised unsigned shorts,
+ *  - the colour (r, g, b, a) as 4 normalised unsigned bytes.
+ *
+ * Everything is drawn as quads, using the shared index pattern of QuadIndexBuffer, so vertices are written in
+ * fours. The corners (0, 1, 2, 3) of a quad make the triangles (0, 1, 2) and (0, 3, 2). A triangle is written
+ * as its three corners followed by closeTriangle(), which repeats the last one.
+ *
+ * A frame is drawn with begin(), then the Drawables' writeMesh(), then end().
+ */
+public final class MeshBuffer {
+
+  /** Bytes per vertex. */
+  static final int STRIDE = 3 * Float.BYTES + 2 * Short.BYTES + 4;
+  private static final int UV_OFFSET = 3 * Float.BYTES;
+  private static final int COLOUR_OFFSET = UV_OFFSET + 2 * Short.BYTES;
+
+  private static final int INITIAL_CAPACITY = 1024;
+
+  private final boolean direct;
+  private ByteBuffer vertices;
+  private int capacity;
+  private int vertexCount;
+
+  /**
+   * Create a buffer in native memory, which has to be freed with free().
+   */
+  public MeshBuffer() {
+    this(INITIAL_CAPACITY, true);
+  }
+
+  /**
+   * Create a buffer.
+   *
+   * @param capacity The number of vertices to make room for.
+   * @param direct   Whether to allocate native memory (for OpenGL) or use the heap.
+   */
+  MeshBuffer(int capacity, boolean direct) {
+    this.direct = direct;
+    this.capacity = Math.max(capacity, 1);
+    vertices = allocate(this.capacity * STRIDE);
+  }
+
+  /**
+   * Start writing a frame, discarding the last one.
+   *
+   * @param expectedVertices How many vertices are going to be written (see Drawable.getVertexCount()),
+   *                         so the buffer only needs to grow once.
+   */
+  public void begin(int expectedVertices) {
+    reserve(expectedVertices);
+    vertices.clear();
+    vertexCount = 0;
+  }
+
+  /**
+   * Finish writing a frame, so the buffer can be read from the start.
+   */
+  public void end() {
+    vertices.flip();
+  }
+
+  /**
+   * Write one vertex. Texture coordinates and colours are clamped to [0, 1].
+   */
+  public void vertex(float x, float y, float z, float u, float v, float red, float green, float blue) {
+    if (vertexCount == capacity) {
+      // Something wrote more than it said it would
+      reserve(capacity * 2);
+    }
+    vertices.putFloat(x).putFloat(y).putFloat(z)
+        .putShort(unitShort(u)).putShort(unitShort(v))
+        .put(unitByte(red)).put(unitByte(green)).put(unitByte(blue)).put((byte) 0xFF);
+    vertexCount++;
+  }
+
+  /**
+   * Finish a triangle written with three vertex() calls, by repeating its last corner. This makes it a quad
+   * whose second triangle has no area, so it can share the quad index pattern.
+   */
+  public void closeTriangle() {
+    if (vertexCount == capacity) {
+      reserve(capacity * 2);
+    }
+    int last = vertices.position() - STRIDE;
+    for (int i = 0; i < STRIDE; i++) {
+      vertices.put(vertices.get(last + i));
+    }
+    vertexCount++;
+  }
+
+  /**
+   * Write a rectangle as four corners, which are drawn as two triangles:
+   *  +----+
+   *  |1 / |
+   *  | / 2|
+   *  +----+
+   * The corners are (x0, y0), (x1, y0), (x1, y1), (x0, y1), so face 1 is (x0, y0), (x1, y0), (x1, y1) and
+   * face 2 is (x0, y0), (x0, y1), (x1, y1).
+   * The texture coordinates follow the same pattern, from (top, left) at (x0, y0) to (bottom, right) at (x1, y1).
+   */
+  public void quad(float x0, float y0, float x1, float y1, float z,
+      float top, float bottom, float left, float right,
+      float red, float green, float blue) {
+    vertex(x0, y0, z, top, left, red, green, blue);
+    vertex(x1, y0, z, bottom, left, red, green, blue);
+    vertex(x1, y1, z, bottom, right, red, green, blue);
+    vertex(x0, y1, z, top, right, red, green, blue);
+  }
+
+  public int getVertexCount() {
+    return vertexCount;
+  }
+
+  /**
+   * Getter for the interleaved vertices, STRIDE bytes per vertex. Only valid after end().
+   *
+   * @return The vertices.
+   */
+  public ByteBuffer getVertices() {
+    return vertices;
+  }
+
+  /**
+   * Release the native memory. The buffer can't be used afterwards.
+   */
+  public void free() {
+    if (direct) {
+      memFree(vertices);
+    }
+    vertices = null;
+  }
+
+  /**
+   * Point vertex attributes 0 (position), 1 (texture coordinate) and 2 (colour) at the vertex layout above,
+   * in the buffer bound to GL_ARRAY_BUFFER.
+   *
+   * @param offset Where the first vertex is in the bound buffer, in bytes.
+   */
+  static void pointAttributes(long offset) {
+    glVertexAttribPointer(0, 3, GL_FLOAT, false, STRIDE, offset);
+    glEnableVertexAttribArray(0);
+    glVertexAttribPointer(1, 2, GL_UNSIGNED_SHORT, true, STRIDE, offset + UV_OFFSET);
+    glEnableVertexAttribArray(1);
+    glVertexAttribPointer(2, 4, GL_UNSIGNED_BYTE, true, STRIDE, offset + COLOUR_OFFSET);
+    glEnableVertexAttribArray(2);
+  }
+
+  private static short unitShort(float value) {
+    return (short) Math.round(Math.min(Math.max(value, 0f), 1f) * 65535f);
+  }
+
+  private static byte unitByte(float value) {
+    return (byte) Math.round(Math.min(Math.max(value, 0f), 1f) * 255f);
+  }
+
+  private void reserve(int vertexCapacity) {
+    if (vertexCapacity <= capacity) {
+      return;
+    }
+    capacity = Math.max(vertexCapacity, capacity + capacity / 2);
+    int position = vertices.position();
+    ByteBuffer grown;
+    if (direct) {
+      grown = memRealloc(vertices, capacity * STRIDE);
+    } else {
+      grown = allocate(capacity * STRIDE);
+      vertices.flip();
+      grown.put(vertices);
+    }
+    grown.limit(capacity * STRIDE);
+    grown.position(position);
+    vertices = grown;
+  }
+
+  private ByteBuffer allocate(int bytes) {
+    // memAlloc already uses the native byte order, which is what OpenGL reads
+    return direct ? memAlloc(bytes) : ByteBuffer.allocate(bytes).order(ByteOrder.nativeOrder());
+  }
+}
@@ -0,0 +1,63 @@
+package uk.ac.cam.cl.groupprojectdelta.galtonboards.graphics;
+
+import static org.lwjgl.opengl.GL20.*;
+import static org.lwjgl.system.MemoryUtil.memAllocInt;
+import static org.lwjgl.system.MemoryUtil.memFree;
+
+import java.nio.IntBuffer;
+
+/**
+ * The index buffer every quad is drawn with. Quad q is made of vertices 4q to 4q + 3, drawn as the triangles
+ * (4q, 4q + 1, 4q + 2) and (4q, 4q + 3, 4q + 2), so the same indices work for any MeshBuffer. They only need to
+ * be uploaded again when there are more quads than ever before.
+ */
+final class QuadIndexBuffer {
+
+  private static final int INITIAL_QUADS = 4096;
+
+  private final int indexBuffer;
+  private int quadCapacity = 0;
+
+  QuadIndexBuffer() {
+    indexBuffer = glGenBuffers();
+  }
+
+  /**
+   * Bind the indices to GL_ELEMENT_ARRAY_BUFFER (of the bound vertex array), with room for at least some quads.
+   *
+   * @param quads How many quads are going to be drawn.
+   */
+  void bind(int quads) {
+    glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, indexBuffer);
+    if (quads <= quadCapacity) {
+      return;
+    }
+    quadCapacity = Math.max(INITIAL_QUADS, Math.max(quads, quadCapacity * 2));
+    IntBuffer indices = memAllocInt(quadCapacity * 6);
+    for (int q = 0; q < quadCapacity; q++) {
+      int first = 4 * q;
+      indices.put(first).put(first + 1).put(first + 2)
+          .put(first).put(first + 3).put(first + 2);
+    }
+    indices.flip();
+    glBufferData(GL_ELEMENT_ARRAY_BUFFER, indices, GL_STATIC_DRAW);
+    memFree(indices);
+  }
+
+  /**
+   * Draw a run of quads from the vertex buffer, using the bound indices.
+   *
+   * @param firstVertex The first vertex of the first quad, a multiple of 4.
+   * @param vertexCount The number of vertices to draw, a multiple of 4.
+   */
+  static void draw(int firstVertex, int vertexCount) {
+    if (vertexCount <= 0) {
+      return;
+    }
+    glDrawElements(GL_TRIANGLES, vertexCount / 4 * 6, GL_UNSIGNED_INT, firstVertex / 4 * 6L * Integer.BYTES);
+  }
+
+  void destroy() {
+    glDeleteBuffers(indexBuffer);
+  }
+}
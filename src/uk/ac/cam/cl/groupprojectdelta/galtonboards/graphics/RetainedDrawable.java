@@ -0,0 +1,31 @@
+package uk.ac.cam.cl.groupprojectdelta.galtonboards.graphics;
+
+/**
+ * Something with geometry that only changes when the user edits it (e.g. a board's background and pegs).
+ * That geometry is kept on the GPU by a RetainedLayer and only written again when its version changes,
+ * rather than every frame like a Drawable's. It is drawn before every Drawable.
+ */
+public interface RetainedDrawable {
+
+  /**
+   * Get how many vertices writeRetainedMesh() will write.
+   *
+   * @return The number of vertices (4 per quad or triangle, see MeshBuffer).
+   */
+  int getRetainedVertexCount();
+
+  /**
+   * Write the retained geometry into a buffer.
+   *
+   * @param buffer The buffer to write into.
+   */
+  void writeRetainedMesh(MeshBuffer buffer);
+
+  /**
+   * Get a number that changes whenever the retained geometry does, so it can be written again.
+   *
+   * @return The version.
+   */
+  int getRetainedMeshVersion();
+
+}
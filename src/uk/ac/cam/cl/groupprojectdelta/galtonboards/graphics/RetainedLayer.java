@@ -0,0 +1,157 @@
+package uk.ac.cam.cl.groupprojectdelta.galtonboards.graphics;
+
+import static org.lwjgl.opengl.GL20.*;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the geometry of RetainedDrawables in GPU buffers between frames. Each drawable owns a region of the
+ * buffers, and a region is only written again (with glBufferSubData) when its drawable's version changes,
+ * so the upload cost of a frame depends on what was edited rather than on the size of the scene.
+ *
+ * Regions are given some room to grow. When a drawable outgrows its region it gets a new one at the end of
+ * the buffers, and when the buffers are full everything is laid out again from the start in bigger buffers.
+ */
+final class RetainedLayer {
+
+  private static final int INITIAL_CAPACITY = 4096;
+
+  private final int vertexBuffer;
+  private int capacity = 0; // vertices the GPU buffers have room for
+  private int used = 0; // vertices up to the end of the last region
+
+  private final Map<RetainedDrawable, Region> regions = new IdentityHashMap<>();
+  private final List<RetainedDrawable> live = new ArrayList<>();
+  private final MeshBuffer scratch = new MeshBuffer();
+
+  private static final class Region {
+    int first;
+    int capacity;
+    int count;
+    int version;
+    boolean written = false;
+
+    Region(int first, int capacity) {
+      this.first = first;
+      this.capacity = capacity;
+    }
+  }
+
+  RetainedLayer() {
+    vertexBuffer = glGenBuffers();
+  }
+
+  /**
+   * Bring the GPU buffers up to date with a set of drawables, writing only the ones that have changed.
+   *
+   * @param drawables Everything to draw, in the order to draw it.
+   */
+  void update(Iterable<? extends RetainedDrawable> drawables) {
+    live.clear();
+    for (RetainedDrawable drawable : drawables) {
+      live.add(drawable);
+    }
+    // Drawables that have gone give up their regions, the space is reclaimed when everything is next laid out
+    if (regions.size() > live.size() || !live.containsAll(regions.keySet())) {
+      regions.keySet().retainAll(live);
+    }
+
+    boolean full = false;
+    for (RetainedDrawable drawable : live) {
+      Region region = regions.get(drawable);
+      int count = drawable.getRetainedVertexCount();
+      if (region == null || count > region.capacity) {
+        int regionCapacity = withRoomToGrow(count);
+        if (used + regionCapacity > capacity) {
+          full = true;
+          break;
+        }
+        regions.put(drawable, new Region(used, regionCapacity));
+        used += regionCapacity;
+      }
+    }
+    if (full) {
+      layOut();
+    }
+
+    for (RetainedDrawable drawable : live) {
+      Region region = regions.get(drawable);
+      int version = drawable.getRetainedMeshVersion();
+      if (!region.written || region.version != version) {
+        write(drawable, region);
+        region.version = version;
+        region.written = true;
+      }
+    }
+  }
+
+  /**
+   * Point the vertex attributes at the GPU buffers, ready to draw regions from them.
+   *
+   * @param quadIndices The shared quad indices, which are bound with room for every region.
+   */
+  void bind(QuadIndexBuffer quadIndices) {
+    glBindBuffer(GL_ARRAY_BUFFER, vertexBuffer);
+    MeshBuffer.pointAttributes(0);
+    quadIndices.bind(used / 4);
+  }
+
+  /**
+   * Draw one drawable's region, after bind(). Regions are drawn one at a time so whatever else is drawn for
+   * a drawable can go on top of it before the next drawable is drawn.
+   *
+   * @param drawable One of the drawables given to the last update().
+   */
+  void draw(RetainedDrawable drawable) {
+    Region region = regions.get(drawable);
+    QuadIndexBuffer.draw(region.first, region.count);
+  }
+
+  void destroy() {
+    glDeleteBuffers(vertexBuffer);
+    scratch.free();
+  }
+
+  /**
+   * Give every drawable a new region, one after the other from the start of new, bigger buffers.
+   * Allocating the buffers throws away what was in them, so everything is written again.
+   */
+  private void layOut() {
+    regions.clear();
+    used = 0;
+    for (RetainedDrawable drawable : live) {
+      int regionCapacity = withRoomToGrow(drawable.getRetainedVertexCount());
+      regions.put(drawable, new Region(used, regionCapacity));
+      used += regionCapacity;
+    }
+
+    capacity = Math.max(INITIAL_CAPACITY, used + used / 2);
+    glBindBuffer(GL_ARRAY_BUFFER, vertexBuffer);
+    glBufferData(GL_ARRAY_BUFFER, (long) capacity * MeshBuffer.STRIDE, GL_DYNAMIC_DRAW);
+  }
+
+  private void write(RetainedDrawable drawable, Region region) {
+    scratch.begin(drawable.getRetainedVertexCount());
+    drawable.writeRetainedMesh(scratch);
+    scratch.end();
+    if (scratch.getVertexCount() > region.capacity) {
+      System.err.println("A drawable wrote more retained vertices than it said it would, some won't be drawn.");
+      scratch.getVertices().limit(region.capacity * MeshBuffer.STRIDE);
+    }
+    region.count = Math.min(scratch.getVertexCount(), region.capacity);
+
+    glBindBuffer(GL_ARRAY_BUFFER, vertexBuffer);
+    glBufferSubData(GL_ARRAY_BUFFER, (long) region.first * MeshBuffer.STRIDE, scratch.getVertices());
+  }
+
+  /**
+   * The size of a new region, with some room to grow. Regions start on a whole quad, so this is a multiple of 4.
+   */
+  private static int withRoomToGrow(int count) {
+    int roomy = count + count / 4 + 4;
+    return (roomy + 3) & ~3;
+  }
+}
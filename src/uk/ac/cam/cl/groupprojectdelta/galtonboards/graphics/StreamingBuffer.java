@@ -0,0 +1,86 @@
+package uk.ac.cam.cl.groupprojectdelta.galtonboards.graphics;
+
+import static org.lwjgl.opengl.GL30.*;
+import static org.lwjgl.system.MemoryUtil.memCopy;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A GPU buffer for data that is written again every frame (the streamed part of the mesh, the ball instances).
+ * The buffer is used as a ring: each upload goes after the last one, into memory the GPU can't still be reading,
+ * so it can be mapped without waiting for earlier draws to finish. When the ring is full the buffer is orphaned
+ * (glBufferData with no data), which gives it fresh memory while the driver lets the old frames finish with the
+ * old memory, and writing starts again from the front.
+ *
+ * The buffer only grows, to a few frames' worth of the biggest upload so far, so its size stays flat once
+ * the scene has been at its busiest.
+ */
+final class StreamingBuffer {
+
+  // How many uploads of the biggest size fit in the ring before it is orphaned
+  private static final int FRAMES = 3;
+  private static final int INITIAL_CAPACITY = 64 * 1024;
+
+  private final int buffer;
+  private long capacity = 0;
+  private long head = 0; // where the next upload goes
+  private boolean mappingFailed = false;
+
+  StreamingBuffer() {
+    buffer = glGenBuffers();
+  }
+
+  /**
+   * Copy some data into the buffer, and leave it bound to GL_ARRAY_BUFFER.
+   *
+   * @param data The data, from its position to its limit.
+   * @return The offset in bytes the data was written at, for pointing vertex attributes at it.
+   */
+  long upload(ByteBuffer data) {
+    glBindBuffer(GL_ARRAY_BUFFER, buffer);
+    int size = data.remaining();
+    if (size > capacity / FRAMES) {
+      capacity = Math.max(INITIAL_CAPACITY, (long) size * FRAMES);
+      orphan();
+    } else if (head + size > capacity) {
+      orphan();
+    }
+    if (size == 0) {
+      return head;
+    }
+
+    long offset = head;
+    ByteBuffer target = glMapBufferRange(GL_ARRAY_BUFFER, offset, size,
+        GL_MAP_WRITE_BIT | GL_MAP_INVALIDATE_RANGE_BIT | GL_MAP_UNSYNCHRONIZED_BIT);
+    if (target == null) {
+      // Mapping failed, fall back to letting the driver copy the data
+      if (!mappingFailed) {
+        System.err.println("Couldn't map a streaming buffer, uploading with glBufferSubData instead.");
+        mappingFailed = true;
+      }
+      glBufferSubData(GL_ARRAY_BUFFER, offset, data);
+    } else {
+      memCopy(data, target);
+      glUnmapBuffer(GL_ARRAY_BUFFER);
+    }
+    // Keep uploads 4 byte aligned, since vertex attributes have to be
+    head = (offset + size + 3) & ~3L;
+    return offset;
+  }
+
+  /**
+   * Bind the buffer to GL_ARRAY_BUFFER again, after drawing from another buffer since the last upload.
+   */
+  void bind() {
+    glBindBuffer(GL_ARRAY_BUFFER, buffer);
+  }
+
+  void destroy() {
+    glDeleteBuffers(buffer);
+  }
+
+  private void orphan() {
+    glBufferData(GL_ARRAY_BUFFER, capacity, GL_STREAM_DRAW);
+    head = 0;
+  }
+}
@@ -32,6 +32,7 @@ public class UserInterface {
   public static UserInterface userInterface;
   public Panel editPanel;
   public Slider probabilitySlider;
+  private TopPanel topPanel;
 
   final int editPanelWidth = 400;
   final int topPanelHeight = 48;
@@ -40,7 +41,8 @@ public class UserInterface {
     windowBoards.removeComponents();
     editPanel = getEditPanel(editPanelWidth);
     windowBoards.addComponent(editPanel);
-    windowBoards.addComponent(new TopPanel(0, 0, windowBoards.getWidth(), topPanelHeight, 36, 6));
+    topPanel = new TopPanel(0, 0, windowBoards.getWidth(), topPanelHeight, 36, 6);
+    windowBoards.addComponent(topPanel);
     windowBoards.addComponent(new MainPanel(0, topPanelHeight, windowBoards.getWidth() - editPanelWidth,
                               windowBoards.getHeight() - topPanelHeight, 24, 4));
 
@@ -48,6 +50,13 @@ public class UserInterface {
 
   private final WindowBoards windowBoards;
 
+  /**
+   * Bring the panels up to date with the simulation (e.g. the time slider), called once a frame.
+   */
+  void updatePanels() {
+    topPanel.update();
+  }
+
   public Configuration getConfiguration() {
     return windowBoards.getConfiguration();
   }
@@ -84,7 +93,7 @@ public class UserInterface {
     glfwWindowHint(GLFW_VISIBLE, GLFW_FALSE);
     glfwWindowHint(GLFW_RESIZABLE, GLFW_TRUE);
     glfwWindowHint(GLFW_CONTEXT_VERSION_MAJOR, 3);
-    glfwWindowHint(GLFW_CONTEXT_VERSION_MINOR, 2);
+    glfwWindowHint(GLFW_CONTEXT_VERSION_MINOR, 3);
 
     // Initialize window for the boards
     long windowBoardsID = glfwCreateWindow(windowBoards.getWidth(), windowBoards.getHeight(), "Galton Boards", NULL, NULL);
@@ -158,7 +167,7 @@ public class UserInterface {
 
         SelectBox<String> selectBox = new SelectBox<>(100, current_y + 80, 200, 15);
         selectBox.addElement(" - ");
-        for (String tag : Workspace.workspace.getSimulation().tagColours.keySet()) {
+        for (String tag : Workspace.workspace.getSimulation().getTagRegistry().getColouredTags()) {
           selectBox.addElement(tag);
         }
 
@@ -28,6 +28,7 @@ import uk.ac.cam.cl.groupprojectdelta.galtonboards.UserInput;
 import uk.ac.cam.cl.groupprojectdelta.galtonboards.workspace.Configuration;
 import uk.ac.cam.cl.groupprojectdelta.galtonboards.workspace.Simulation;
 import uk.ac.cam.cl.groupprojectdelta.galtonboards.workspace.Workspace;
+import uk.ac.cam.cl.groupprojectdelta.galtonboards.workspace.board.Board;
 
 import java.io.IOException;
 import java.nio.DoubleBuffer;
@@ -41,6 +42,7 @@ import static org.lwjgl.glfw.Callbacks.glfwFreeCallbacks;
 import static org.lwjgl.glfw.GLFW.*;
 import static org.lwjgl.opengl.GL20.*;
 import static org.lwjgl.opengl.GL30.glBindVertexArray;
+import static org.lwjgl.opengl.GL30.glDeleteVertexArrays;
 import static org.lwjgl.opengl.GL30.glGenVertexArrays;
 
 public class WindowBoards extends Window {
@@ -53,12 +55,20 @@ public class WindowBoards extends Window {
   private int programID;
   private int vertexShaderID;
   private int fragmentShaderID;
-  private int vertexBuffer, uvBuffer, colourTemplateBuffer;
+  private int vao;
+  private StreamingBuffer vertexStream;
+  private QuadIndexBuffer quadIndices;
+  private MeshBuffer meshBuffer;
+  private RetainedLayer retainedLayer;
+  private int[] boardEnds = new int[0]; // where each board's streamed vertices end, for drawing board by board
+  private BallBuffer ballBuffer;
+  private BallRenderer ballRenderer;
   private int textureID;
 
   private final String textureFilePath;
   private final String vertexShaderPath;
   private final String fragmentShaderPath;
+  private final String ballVertexShaderPath;
 
   // UI
   private Frame frame;
@@ -73,10 +83,12 @@ public class WindowBoards extends Window {
   final DoubleBuffer mouseY = BufferUtils.createDoubleBuffer(1);
   Vector2f mousePos = new Vector2f();
 
-  public WindowBoards(int width, int height, String vertexShaderPath, String fragmentShaderPath, String textureFilePath) {
+  public WindowBoards(int width, int height, String vertexShaderPath, String fragmentShaderPath,
+      String ballVertexShaderPath, String textureFilePath) {
     super(width, height);
     this.vertexShaderPath = vertexShaderPath;
     this.fragmentShaderPath = fragmentShaderPath;
+    this.ballVertexShaderPath = ballVertexShaderPath;
     this.textureFilePath = textureFilePath;
   }
 
@@ -116,8 +128,8 @@ public class WindowBoards extends Window {
     programID = glCreateProgram();
 
     // Load, compile and attach shaders
-    vertexShaderID = loadShader(vertexShaderPath, GL_VERTEX_SHADER);
-    fragmentShaderID = loadShader(fragmentShaderPath, GL_FRAGMENT_SHADER);
+    vertexShaderID = loadShader(programID, vertexShaderPath, GL_VERTEX_SHADER);
+    fragmentShaderID = loadShader(programID, fragmentShaderPath, GL_FRAGMENT_SHADER);
 
     // Link the program
     glLinkProgram(programID);
@@ -128,9 +140,14 @@ public class WindowBoards extends Window {
     mvpShaderLocation = glGetUniformLocation(programID, "MVP");
 
     // Generate buffers
-    vertexBuffer = glGenBuffers();
-    uvBuffer = glGenBuffers();
-    colourTemplateBuffer = glGenBuffers();
+    // Every attribute is pointed at its buffer again each frame, so one vertex array does for the whole session
+    vao = glGenVertexArrays();
+    vertexStream = new StreamingBuffer();
+    quadIndices = new QuadIndexBuffer();
+    meshBuffer = new MeshBuffer();
+    retainedLayer = new RetainedLayer();
+    ballBuffer = new BallBuffer();
+    ballRenderer = new BallRenderer(ballVertexShaderPath, fragmentShaderPath);
 
     glEnable(GL_BLEND);
     glBlendFunc(GL_SRC_ALPHA, GL_ONE_MINUS_SRC_ALPHA);
@@ -168,8 +185,6 @@ public class WindowBoards extends Window {
 
     float lastTime, deltaTime;
     Matrix4f MVP = new Matrix4f();
-    List<Float> auxList;
-    float[] mesh, UVs, colourTemplates;
 
     // Clear window and setup OpenGL
     glClear(GL_COLOR_BUFFER_BIT | GL_STENCIL_BUFFER_BIT | GL_DEPTH_BUFFER_BIT);
@@ -180,6 +195,7 @@ public class WindowBoards extends Window {
     deltaTime = (currentTime - lastTime);
     userInput.update(deltaTime);
     workspace.update(deltaTime);
+    UserInterface.userInterface.updatePanels();
 
     // enable transparency
     glEnable(GL_BLEND);
@@ -196,7 +212,8 @@ public class WindowBoards extends Window {
         100.0f);
     projection.mul(Camera.camera.viewMatrix(), MVP);
 
-    glUniformMatrix4fv(mvpShaderLocation, false, MVP.get(new float[16]));
+    float[] mvp = MVP.get(new float[16]);
+    glUniformMatrix4fv(mvpShaderLocation, false, mvp);
 
     mousePos = Mouse.getCursorPosition();
     mousePos.mul(1 / (float)windowWidth[0], 1 / (float)windowHeight[0]);
@@ -206,46 +223,55 @@ public class WindowBoards extends Window {
     Camera.camera.toWorldSpace(mousePos);
     workspace.mouseMove(mousePos, screenPos);
 
-    int vao = glGenVertexArrays();
     glBindVertexArray(vao);
 
-    auxList = workspace.getMesh(currentTime);
-    mesh = new float[auxList.size()];
-    for (int i = 0; i < auxList.size(); i++)
-      mesh[i] = auxList.get(i);
-
-    auxList = workspace.getUV();
-    UVs = new float[auxList.size()];
-    for (int i = 0; i < auxList.size(); i++)
-      UVs[i] = auxList.get(i);
-
-    auxList = workspace.getColourTemplate();
-    colourTemplates = new float[auxList.size()];
-    for (int i = 0; i < auxList.size(); i++)
-      colourTemplates[i] = auxList.get(i);
-
-    glBindBuffer(GL_ARRAY_BUFFER, vertexBuffer);
-    glBufferData(GL_ARRAY_BUFFER, mesh, GL_STATIC_DRAW);
-    glVertexAttribPointer(0, 3, GL_FLOAT, false, 0, 0);
-    glEnableVertexAttribArray(0);
+    glBindTexture(GL_TEXTURE_2D, textureID);
 
-    glBindBuffer(GL_ARRAY_BUFFER, uvBuffer);
-    glBufferData(GL_ARRAY_BUFFER, UVs, GL_STATIC_DRAW);
-    glVertexAttribPointer(1, 2, GL_FLOAT, false, 0, 0);
-    glEnableVertexAttribArray(1);
+    // The boards' backgrounds and pegs stay on the GPU, and are only uploaded again when they change
+    List<Board> boards = workspace.getConfiguration().getBoards();
+    retainedLayer.update(boards);
 
-    glBindBuffer(GL_ARRAY_BUFFER, colourTemplateBuffer);
-    glBufferData(GL_ARRAY_BUFFER, colourTemplates, GL_STATIC_DRAW);
-    glVertexAttribPointer(2, 3, GL_FLOAT, false, 0, 0);
-    glEnableVertexAttribArray(2);
+    // Everything else changes from frame to frame. Size the buffer for the whole frame, then let everything
+    // write its vertices straight into it. Remember where each board ends, so each board's buckets etc. can be
+    // drawn over its own pegs before the next board, and the balls between the boards and the overlay (cursor etc.)
+    meshBuffer.begin(workspace.getVertexCount());
+    if (boardEnds.length < boards.size()) {
+      boardEnds = new int[boards.size() * 2];
+    }
+    for (int b = 0; b < boards.size(); b++) {
+      boards.get(b).writeMesh(currentTime, meshBuffer);
+      boardEnds[b] = meshBuffer.getVertexCount();
+    }
+    int boardVertexCount = meshBuffer.getVertexCount();
+    workspace.writeOverlayMesh(currentTime, meshBuffer);
+    meshBuffer.end();
+
+    long streamOffset = vertexStream.upload(meshBuffer.getVertices());
+    quadIndices.bind(meshBuffer.getVertexCount() / 4);
+
+    // Draw board by board, so a board drawn later covers all of the boards before it
+    int boardStart = 0;
+    for (int b = 0; b < boards.size(); b++) {
+      retainedLayer.bind(quadIndices);
+      retainedLayer.draw(boards.get(b));
+      vertexStream.bind();
+      MeshBuffer.pointAttributes(streamOffset);
+      QuadIndexBuffer.draw(boardStart, boardEnds[b] - boardStart);
+      boardStart = boardEnds[b];
+    }
 
-    glBindTexture(GL_TEXTURE_2D, textureID);
+    // The balls only send their position and colour, the shader builds the quads
+    Simulation simulation = workspace.getSimulation();
+    ballBuffer.begin(simulation.getBallCount());
+    simulation.writeBallInstances(ballBuffer);
+    ballBuffer.end();
+    ballRenderer.draw(ballBuffer, mvp, simulation.getBallSize());
 
-    glDrawArrays(
-        GL_TRIANGLES,
-        0,
-        mesh.length / 3
-    );
+    glUseProgram(programID);
+    glBindVertexArray(vao);
+    vertexStream.bind();
+    MeshBuffer.pointAttributes(streamOffset);
+    QuadIndexBuffer.draw(boardVertexCount, meshBuffer.getVertexCount() - boardVertexCount);
 
     initializer.getContext().updateGlfwWindow();
     initializer.getRenderer().render(frame, initializer.getContext());
@@ -264,6 +290,13 @@ public class WindowBoards extends Window {
   void destroy(long window) {
 
     initializer.getRenderer().destroy();
+    meshBuffer.free();
+    retainedLayer.destroy();
+    quadIndices.destroy();
+    vertexStream.destroy();
+    glDeleteVertexArrays(vao);
+    ballBuffer.free();
+    ballRenderer.destroy();
 
     // Detach and delete shaders
     glDetachShader(programID, vertexShaderID);
@@ -281,11 +314,12 @@ public class WindowBoards extends Window {
   /**
    * Load, compile and attach a shader
    *
+   * @param programID: program to attach the shader to
    * @param shaderPath: shader file name
    * @param shaderType: vertex (GL_VERTEX_SHADER) or fragment (GL_FRAGMENT_SHADER)
    * @return shader identifier
    */
-  private int loadShader(String shaderPath, int shaderType) {
+  static int loadShader(int programID, String shaderPath, int shaderType) {
     // Load the shader
     String shaderSource;
     try {
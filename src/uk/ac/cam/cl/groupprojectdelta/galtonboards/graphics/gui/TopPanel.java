@@ -2,6 +2,8 @@ package uk.ac.cam.cl.groupprojectdelta.galtonboards.graphics.gui;
 
 
 import org.liquidengine.legui.component.*;
+import org.liquidengine.legui.component.event.slider.SliderChangeValueEvent;
+import org.liquidengine.legui.component.event.slider.SliderChangeValueEventListener;
 import org.liquidengine.legui.component.event.textinput.TextInputContentChangeEvent;
 import org.liquidengine.legui.component.optional.align.HorizontalAlign;
 import org.liquidengine.legui.event.MouseClickEvent;
@@ -9,6 +11,7 @@ import org.liquidengine.legui.style.border.SimpleLineBorder;
 import org.liquidengine.legui.style.color.ColorConstants;
 import uk.ac.cam.cl.groupprojectdelta.galtonboards.graphics.UserInterface;
 import uk.ac.cam.cl.groupprojectdelta.galtonboards.workspace.Configuration;
+import uk.ac.cam.cl.groupprojectdelta.galtonboards.workspace.Simulation;
 import uk.ac.cam.cl.groupprojectdelta.galtonboards.workspace.Workspace;
 import uk.ac.cam.cl.groupprojectdelta.galtonboards.workspace.board.*;
 
@@ -20,6 +23,8 @@ import java.util.List;
  * It includes multiple sub-panels, each providing a different functionality.
  */
 public class TopPanel extends Panel {
+  private final TimeScrubber timeScrubber;
+
   /**
    * Creates the TopPanel.
    *
@@ -35,16 +40,27 @@ public class TopPanel extends Panel {
     getStyle().getBackground().setColor(ColorConstants.gray());
     getStyle().setBorder(new SimpleLineBorder());
 
-    add(new SimulationControls(0, 0, 200, height, size, spacing));
-    add(new SetSimulationSpeed(175, 0, 200, height, size, spacing));
-    add(new SetSpawnRate(285, 0, 200, height, size, spacing));
-    add(new InsertBoards(425, 0, 200, height, size, spacing));
-    add(new SelectConfiguration(650, 0, 200, height, size, spacing));
-    add(new SavePanel(900, 0, 200, height, size, spacing));
+    add(new SimulationControls(0, 0, 258, height, size, spacing));
+    timeScrubber = new TimeScrubber(258, 0, 140, height, size, spacing);
+    add(timeScrubber);
+    add(new SetSimulationSpeed(398, 0, 200, height, size, spacing));
+    add(new SetSpawnRate(508, 0, 200, height, size, spacing));
+    add(new InsertBoards(648, 0, 200, height, size, spacing));
+    add(new SelectConfiguration(873, 0, 200, height, size, spacing));
+    add(new SavePanel(1123, 0, 200, height, size, spacing));
+    add(new PathOptions(1323, 0, 2 * spacing + 2 * size, height, size, spacing));
+  }
+
+  /**
+   * Bring the panel up to date with the simulation, called once a frame.
+   */
+  public void update() {
+    timeScrubber.update();
   }
 
   /**
-   * Sub-panel containing the simulation control buttons (i.e. play, pause and stop).
+   * Sub-panel containing the simulation control buttons (i.e. play, pause, stop, rewind, fast forward
+   * and the event-driven mode toggle).
    */
   private static class SimulationControls extends Panel {
     SimulationControls(int xPos, int yPos, int width, int height, int size, int spacing) {
@@ -58,6 +74,97 @@ public class TopPanel extends Panel {
           event -> UserInterface.userInterface.getWindowBoards().getSimulation().pause()));
       add(new SimpleButton(3 * spacing + 2 * size, spacing, size, 0xF4DB,
           event -> UserInterface.userInterface.getWindowBoards().getSimulation().stop()));
+      SimpleButton rewind = new SimpleButton(4 * spacing + 3 * size, spacing, size, 0xF45F,
+          event -> UserInterface.userInterface.getWindowBoards().getSimulation().rewind());
+      rewind.setTooltip(new Tooltip("Play backwards, as far as the last few seconds go"));
+      rewind.getTooltip().setPosition(0, size);
+      rewind.getTooltip().getSize().set(256, 32);
+      rewind.getTooltip().getStyle().setPadding(4f);
+      add(rewind);
+      SimpleButton fastForward = new SimpleButton(5 * spacing + 4 * size, spacing, size, 0xF211, event -> {
+        if (event.getAction().equals(MouseClickEvent.MouseClickAction.CLICK)) {
+          Simulation simulation = UserInterface.userInterface.getWindowBoards().getSimulation();
+          simulation.setFastForward(!simulation.isFastForward());
+        }
+      });
+      fastForward.setTooltip(new Tooltip("Toggle fast forward (balls go straight to their bucket)"));
+      fastForward.getTooltip().setPosition(0, size);
+      fastForward.getTooltip().getSize().set(256, 32);
+      fastForward.getTooltip().getStyle().setPadding(4f);
+      add(fastForward);
+      SimpleButton eventDriven = new SimpleButton(6 * spacing + 5 * size, spacing, size, 0xF241, event -> {
+        if (event.getAction().equals(MouseClickEvent.MouseClickAction.CLICK)) {
+          Simulation simulation = UserInterface.userInterface.getWindowBoards().getSimulation();
+          simulation.setEventDriven(!simulation.isEventDriven());
+        }
+      });
+      eventDriven.setTooltip(new Tooltip("Toggle only moving balls when they reach a peg or bucket (only while stopped)"));
+      eventDriven.getTooltip().setPosition(0, size);
+      eventDriven.getTooltip().getSize().set(256, 32);
+      eventDriven.getTooltip().getStyle().setPadding(4f);
+      add(eventDriven);
+    }
+  }
+
+  /**
+   * Sub-panel containing the slider for going back and forth in time, as far back as the simulation's
+   * checkpoints go (see Simulation.seek()). Moving it pauses the simulation.
+   */
+  private static class TimeScrubber extends Panel {
+    private final Slider slider;
+    // Where update() last put the slider, so that isn't mistaken for the user moving it
+    private float shownValue = 1f;
+
+    TimeScrubber(int xPos, int yPos, int width, int height, int size, int spacing) {
+      super(xPos, yPos, width, height);
+      getStyle().getBackground().setColor(ColorConstants.transparent());
+      getStyle().getBorder().setEnabled(false);
+      getStyle().getShadow().setColor(ColorConstants.transparent());
+      int halfSize = size / 2;
+
+      Label sliderLabel = new Label("Time:", spacing, spacing, width - 2 * spacing, halfSize);
+      sliderLabel.getStyle().setHorizontalAlign(HorizontalAlign.CENTER);
+      add(sliderLabel);
+
+      slider = new Slider(spacing, spacing + halfSize, width - 2 * spacing, halfSize);
+      slider.setMinValue(0f);
+      slider.setMaxValue(1f);
+      slider.setValue(shownValue);
+      slider.getListenerMap().addListener(SliderChangeValueEvent.class,
+          (SliderChangeValueEventListener) event -> {
+            if (Math.abs(event.getNewValue() - shownValue) > 1e-6f) {
+              seek(event.getNewValue());
+            }
+          });
+      add(slider);
+    }
+
+    /**
+     * Pause the simulation and move it to a point between the oldest checkpoint and the furthest it has run.
+     */
+    private void seek(float value) {
+      Simulation simulation = Workspace.workspace.getSimulation();
+      long earliest = simulation.getEarliestStep();
+      if (earliest < 0) {
+        // Nothing has been run since the simulation was stopped
+        return;
+      }
+      simulation.pause();
+      long target = earliest + Math.round(value * (simulation.getLatestStep() - earliest));
+      if (!simulation.seek(target)) {
+        System.err.println("Can't go back that far, the boards have been edited since.");
+      }
+    }
+
+    /**
+     * Move the slider to where the simulation is now.
+     */
+    void update() {
+      Simulation simulation = Workspace.workspace.getSimulation();
+      long earliest = simulation.getEarliestStep();
+      long range = simulation.getLatestStep() - earliest;
+      shownValue = earliest < 0 || range <= 0 ? 1f : (float) (simulation.getStepIndex() - earliest) / range;
+      slider.setValue(shownValue);
     }
   }
 
@@ -174,6 +281,31 @@ public class TopPanel extends Panel {
     }
   }
 
+  /**
+   * Sub-panel containing the button choosing when balls draw which way they fall (see Simulation.setLazyPaths()).
+   */
+  private static class PathOptions extends Panel {
+    PathOptions(int xPos, int yPos, int width, int height, int size, int spacing) {
+      super(xPos, yPos, width, height);
+      getStyle().getBackground().setColor(ColorConstants.transparent());
+      getStyle().getBorder().setEnabled(false);
+      getStyle().getShadow().setColor(ColorConstants.transparent());
+      Button paths = new Button("Paths", spacing, spacing, width - 2 * spacing, size);
+      paths.getStyle().setBorder(new SimpleLineBorder(ColorConstants.black(), 1));
+      paths.getListenerMap().addListener(MouseClickEvent.class, event -> {
+        if (event.getAction().equals(MouseClickEvent.MouseClickAction.CLICK)) {
+          Simulation simulation = UserInterface.userInterface.getWindowBoards().getSimulation();
+          simulation.setLazyPaths(!simulation.isLazyPaths());
+        }
+      });
+      paths.setTooltip(new Tooltip("Toggle drawing each ball's whole path when it is dropped (only while stopped)"));
+      paths.getTooltip().setPosition(0, size);
+      paths.getTooltip().getSize().set(256, 32);
+      paths.getTooltip().getStyle().setPadding(4f);
+      add(paths);
+    }
+  }
+
   /**
    * Sub-panel containing the buttons for saving the current boards configuration.
    */
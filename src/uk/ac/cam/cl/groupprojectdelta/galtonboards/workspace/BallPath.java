@@ -0,0 +1,102 @@
+package uk.ac.cam.cl.groupprojectdelta.galtonboards.workspace;
+
+import java.util.Arrays;
+
+import uk.ac.cam.cl.groupprojectdelta.galtonboards.workspace.board.Board;
+import uk.ac.cam.cl.groupprojectdelta.galtonboards.workspace.board.CompiledBoard;
+
+/**
+ * A ball's whole route packed into a few words. For each board the ball passes through (a hop) there is a
+ * word of choice bits with bit r set if the ball falls left at the peg it meets on row r (a board with more
+ * than 64 rows takes more than one word). The boards themselves aren't stored, they follow from the choices.
+ * The words are copied into the BallStore, which follows them with fallsLeft() as the ball moves.
+ * An instance can be reused for any number of paths, its arrays only grow.
+ */
+public final class BallPath {
+    private int[] firstWord = new int[5]; // the first choice word of each hop, firstWord[hopCount] is the total
+    private long[] choices = new long[4];
+    private int hopCount = 0;
+
+    /**
+     * Draw a new route for a ball dropped on the root peg of a board, replacing the current one.
+     * A route round a loop of boards is cut short after MAX_BOARD_HOPS boards, the ball finishes where it ends.
+     * @param start : CompiledBoard - The board the ball is dropped into.
+     * @param random : RandomSource - Where to draw the choices from.
+     */
+    public void draw(CompiledBoard start, RandomSource random) {
+        hopCount = 0;
+        CompiledBoard compiled = start;
+        while (compiled != null && compiled.getPegCount() > 0) {
+            if (hopCount == CompiledBoard.MAX_BOARD_HOPS) {
+                CompiledBoard.reportLoop("cutting the ball's path short");
+                return;
+            }
+            int hop = addHop(compiled);
+            int words = firstWord[hop];
+            int peg = 0;
+            while (true) {
+                boolean takeLeft = random.nextDouble() < compiled.leftProb(peg);
+                if (takeLeft) {
+                    int row = compiled.getPegRow(peg);
+                    choices[words + (row >> 6)] |= 1L << (row & 63);
+                }
+                int next = compiled.next(peg, takeLeft);
+                if (CompiledBoard.isColumn(next)) {
+                    Board output = compiled.getOutput(CompiledBoard.toColumn(next));
+                    compiled = output == null ? null : output.getCompiled();
+                    break;
+                }
+                peg = next;
+            }
+        }
+    }
+
+    private int addHop(CompiledBoard compiled) {
+        if (hopCount + 1 == firstWord.length) {
+            firstWord = Arrays.copyOf(firstWord, hopCount * 2 + 1);
+        }
+        int start = firstWord[hopCount];
+        int end = start + compiled.getChoiceWords();
+        if (end > choices.length) {
+            choices = Arrays.copyOf(choices, Math.max(end, choices.length * 2));
+        }
+        Arrays.fill(choices, start, end, 0);
+        firstWord[hopCount + 1] = end;
+        return hopCount++;
+    }
+
+    /*
+    =====================================================================
+                                 DECODING
+    =====================================================================
+     */
+
+    /**
+     * Check which way a ball falls at the peg it meets on one row of a board, from packed choice words
+     * (a path's own, or a copy of them in the BallStore).
+     * @param words : long[] - The packed choices.
+     * @param firstWord : int - Where the board's choice words start in the array.
+     * @param row : int - The row of the peg.
+     * @return True if it falls left.
+     */
+    public static boolean fallsLeft(long[] words, int firstWord, int row) {
+        return (words[firstWord + (row >> 6)] >>> (row & 63) & 1) != 0;
+    }
+
+    /**
+     * Getter for the number of choice words, across every hop.
+     * @return The number of words.
+     */
+    public int getWordCount() {
+        return firstWord[hopCount];
+    }
+
+    /**
+     * Copy the choice words somewhere else (e.g. into the BallStore).
+     * @param destination : long[] - The array to copy into.
+     * @param offset : int - Where in the array to put the first word.
+     */
+    public void copyWords(long[] destination, int offset) {
+        System.arraycopy(choices, 0, destination, offset, getWordCount());
+    }
+}
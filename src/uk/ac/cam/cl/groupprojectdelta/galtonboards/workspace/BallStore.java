@@ -0,0 +1,1040 @@
+package uk.ac.cam.cl.groupprojectdelta.galtonboards.workspace;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import uk.ac.cam.cl.groupprojectdelta.galtonboards.workspace.board.Board;
+import uk.ac.cam.cl.groupprojectdelta.galtonboards.workspace.board.ColumnBottom;
+import uk.ac.cam.cl.groupprojectdelta.galtonboards.workspace.board.ColumnTop;
+import uk.ac.cam.cl.groupprojectdelta.galtonboards.workspace.board.CompiledBoard;
+
+/**
+ * Struct-of-arrays storage for every ball being animated by a simulation.
+ * Each ball is a slot in a set of parallel primitive arrays, so updating and drawing balls doesn't touch any
+ * per-ball objects. A ball's path is packed into choice bits (one per peg it meets) and decoded one step at a
+ * time through each board's CompiledBoard. With lazy paths (the default) a choice is only drawn when the ball
+ * reaches its peg, from a random stream of the ball's own, so spawning is O(1) and a ball only keeps its last
+ * 64 choices. Otherwise the whole path is drawn when the ball is spawned (see BallPath), one word of choices
+ * per board it passes through. Balls are removed by moving the last slot into the freed one,
+ * which is also how balls that have finished are retired into their bucket's counters.
+ * There are no per-ball objects at all: columns and buckets only count the balls they hold (by tag), and which
+ * peg a ball is at is just its board and node here. Ball views are only made when something asks for one.
+ * Moving balls only touches the arrays, so an update can be split across threads: the balls leaving and joining
+ * columns are logged per chunk of slots and the counters are updated afterwards in slot order.
+ * In event-driven mode balls aren't moved at all: each ball's arrival at its next logical location is scheduled on
+ * a TimingWheel, only the balls that arrive are updated, and positions are interpolated when they are asked for.
+ */
+public class BallStore {
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    // What kind of logical location a ball is at
+    static final byte AT_PEG = 0;
+    static final byte AT_COLUMN_TOP = 1;
+    static final byte AT_COLUMN_BOTTOM = 2;
+
+    // How many balls are moved by each task of an update, and how many balls there need to be before
+    // an update is worth splitting across threads
+    private static final int CHUNK_SIZE = 1024;
+    private static final int PARALLEL_THRESHOLD = 4 * CHUNK_SIZE;
+
+    // How far a ball travels in one tick of the timing wheel, in event-driven mode
+    private static final double TICK_LENGTH = 1.0 / 256;
+
+    private final Simulation simulation;
+    private final int untagged = TagRegistry.registry.intern("untagged");
+    private int size = 0;
+
+    // Position of the ball, and of the logical locations it is travelling from and to
+    private float[] x;
+    private float[] y;
+    private float[] fromX;
+    private float[] fromY;
+    private float[] toX;
+    private float[] toY;
+
+    // How many logical locations the ball has passed, and its tag (see TagRegistry)
+    private int[] pathIndex;
+    private int[] tag;
+
+    // The logical location the ball is at: a peg index, or a column index for a column top/bottom
+    private CompiledBoard[] board;
+    private byte[] stage;
+    private int[] node;
+
+    // Packed path, laid out as in BallPath: for each board on the ball's route, bit r of the board's words is set
+    // if the ball falls left on row r. choiceIndex is the first word of the board the ball is on, and pathWords
+    // is how many words the ball's path fills (a path cut short by a loop of boards ends before the loop does).
+    // With lazy paths stride is always 1 and the word holds the latest choices instead, the current one in bit 0.
+    private long[] choices;
+    private int stride = 1;
+    private int[] choiceIndex;
+    private int[] pathWords;
+    private boolean lazyPaths = true;
+    private long[] ballRandom; // SplitMix64 state of each ball's own random stream, for lazy paths
+
+    // Event-driven mode. Times are measured by the distance clock, how far a ball could have travelled since
+    // the store was cleared, so arrivals don't depend on the speed or the frame rate.
+    private boolean eventDriven = false;
+    private double distanceClock = 0;
+    private double[] legStart; // the distance clock when the ball left its last logical location
+    private float[] legLength;
+    private final TimingWheel wheel = new TimingWheel(0);
+    private final MembershipLog eventLog = new MembershipLog();
+
+    // Scratch space for drawing a new ball's path before it is given a slot
+    private final BallPath path = new BallPath();
+
+    // One log of logical location changes per chunk of slots, reused between updates
+    private MembershipLog[] logs = new MembershipLog[0];
+
+    BallStore(Simulation simulation) {
+        this.simulation = simulation;
+        allocate(INITIAL_CAPACITY);
+    }
+
+    private void allocate(int capacity) {
+        x = new float[capacity];
+        y = new float[capacity];
+        fromX = new float[capacity];
+        fromY = new float[capacity];
+        toX = new float[capacity];
+        toY = new float[capacity];
+        pathIndex = new int[capacity];
+        tag = new int[capacity];
+        board = new CompiledBoard[capacity];
+        stage = new byte[capacity];
+        node = new int[capacity];
+        choices = new long[capacity * stride];
+        choiceIndex = new int[capacity];
+        pathWords = new int[capacity];
+        ballRandom = new long[capacity];
+        legStart = new double[capacity];
+        legLength = new float[capacity];
+        wheel.ensureCapacity(capacity);
+    }
+
+    private void grow() {
+        int capacity = x.length * 2;
+        x = Arrays.copyOf(x, capacity);
+        y = Arrays.copyOf(y, capacity);
+        fromX = Arrays.copyOf(fromX, capacity);
+        fromY = Arrays.copyOf(fromY, capacity);
+        toX = Arrays.copyOf(toX, capacity);
+        toY = Arrays.copyOf(toY, capacity);
+        pathIndex = Arrays.copyOf(pathIndex, capacity);
+        tag = Arrays.copyOf(tag, capacity);
+        board = Arrays.copyOf(board, capacity);
+        stage = Arrays.copyOf(stage, capacity);
+        node = Arrays.copyOf(node, capacity);
+        choices = Arrays.copyOf(choices, capacity * stride);
+        choiceIndex = Arrays.copyOf(choiceIndex, capacity);
+        pathWords = Arrays.copyOf(pathWords, capacity);
+        ballRandom = Arrays.copyOf(ballRandom, capacity);
+        legStart = Arrays.copyOf(legStart, capacity);
+        legLength = Arrays.copyOf(legLength, capacity);
+        wheel.ensureCapacity(capacity);
+    }
+
+    /**
+     * Make room for paths of up to newStride * 64 pegs, re-laying out the packed choices.
+     */
+    private void growStride(int newStride) {
+        long[] newChoices = new long[x.length * newStride];
+        for (int i = 0; i < size; i++) {
+            System.arraycopy(choices, i * stride, newChoices, i * newStride, stride);
+        }
+        choices = newChoices;
+        stride = newStride;
+    }
+
+    /*
+    =====================================================================
+                            ADDING AND REMOVING
+    =====================================================================
+     */
+
+    /**
+     * Add a ball at the root peg of a board. Unless paths are lazy, which way it falls at every peg on its path
+     * is decided up front.
+     * @param startBoard : Board - The board the ball is dropped into.
+     * @return A view of the new ball.
+     */
+    Ball spawn(Board startBoard) {
+        spawn(startBoard, 1, simulation.getRandom());
+        return new Ball(this, size - 1);
+    }
+
+    /**
+     * Add a batch of balls at the root peg of a board. The store is grown once for the whole batch, then the
+     * random draws and each of the ball arrays are filled in for every new ball in turn.
+     * The balls draw from the source in the same order as spawning them one at a time would.
+     * @param startBoard : Board - The board the balls are dropped into.
+     * @param count : int - How many balls to add.
+     * @param source : RandomSource - Where to draw the balls' paths (or their random streams) from.
+     */
+    void spawn(Board startBoard, int count, RandomSource source) {
+        if (count <= 0) {
+            return;
+        }
+        int first = size;
+        int end = size + count;
+        while (x.length < end) {
+            grow();
+        }
+        size = end;
+
+        CompiledBoard compiled = startBoard.getCompiled();
+        if (lazyPaths) {
+            for (int i = first; i < end; i++) {
+                ballRandom[i] = source.nextLong();
+            }
+            for (int i = first; i < end; i++) {
+                choices[i * stride] = 0;
+            }
+        } else {
+            // Decide each whole path, following bucket outputs from board to board
+            for (int i = first; i < end; i++) {
+                path.draw(compiled, source);
+                int words = path.getWordCount();
+                if (words > stride) {
+                    growStride(words);
+                }
+                path.copyWords(choices, i * stride);
+                pathWords[i] = words;
+                Arrays.fill(choices, i * stride + words, (i + 1) * stride, 0);
+            }
+        }
+
+        // Every new ball starts at the root peg, at the start of its path and its first board's choices
+        float rootX = compiled.getPegX(0);
+        float rootY = compiled.getPegY(0);
+        Arrays.fill(board, first, end, compiled);
+        Arrays.fill(stage, first, end, AT_PEG);
+        Arrays.fill(node, first, end, 0);
+        Arrays.fill(choiceIndex, first, end, 0);
+        Arrays.fill(pathIndex, first, end, 0);
+        Arrays.fill(tag, first, end, untagged);
+        Arrays.fill(x, first, end, rootX);
+        Arrays.fill(y, first, end, rootY);
+        Arrays.fill(fromX, first, end, rootX);
+        Arrays.fill(fromY, first, end, rootY);
+
+        for (int i = first; i < end; i++) {
+            if (lazyPaths) {
+                decide(i);
+            }
+            setTarget(i);
+            // The root peg tags the ball as soon as it is dropped
+            applyGivenTags(i);
+            if (eventDriven) {
+                startLeg(i, distanceClock);
+                wheel.schedule(i, arrivalTick(i));
+            }
+        }
+    }
+
+    /**
+     * Choose whether balls draw each choice when they reach its peg rather than all of them when they are spawned.
+     * Only takes effect when there are no balls.
+     * @param lazyPaths : boolean - True for lazy paths.
+     */
+    void setLazyPaths(boolean lazyPaths) {
+        if (size != 0) {
+            System.err.println("Can't change how ball paths are drawn while there are balls.");
+            return;
+        }
+        this.lazyPaths = lazyPaths;
+    }
+
+    boolean isLazyPaths() {
+        return lazyPaths;
+    }
+
+    /**
+     * Choose whether balls are moved every update or only dealt with when they reach a logical location.
+     * Only takes effect when there are no balls.
+     * @param eventDriven : boolean - True to schedule arrivals on the timing wheel.
+     */
+    void setEventDriven(boolean eventDriven) {
+        if (size != 0) {
+            System.err.println("Can't change how balls are moved while there are balls.");
+            return;
+        }
+        this.eventDriven = eventDriven;
+        wheel.clear(currentTick());
+    }
+
+    boolean isEventDriven() {
+        return eventDriven;
+    }
+
+    /**
+     * Remove a ball by moving the ball in the last slot into its place.
+     * @param i : int - The slot of the ball to remove.
+     */
+    void remove(int i) {
+        int last = --size;
+        if (eventDriven) {
+            wheel.cancel(i);
+            if (i != last) {
+                wheel.move(last, i);
+            }
+        }
+        if (i != last) {
+            x[i] = x[last];
+            y[i] = y[last];
+            fromX[i] = fromX[last];
+            fromY[i] = fromY[last];
+            toX[i] = toX[last];
+            toY[i] = toY[last];
+            pathIndex[i] = pathIndex[last];
+            tag[i] = tag[last];
+            board[i] = board[last];
+            stage[i] = stage[last];
+            node[i] = node[last];
+            System.arraycopy(choices, last * stride, choices, i * stride, stride);
+            choiceIndex[i] = choiceIndex[last];
+            pathWords[i] = pathWords[last];
+            ballRandom[i] = ballRandom[last];
+            legStart[i] = legStart[last];
+            legLength[i] = legLength[last];
+        }
+        board[last] = null;
+    }
+
+    /**
+     * Remove every ball, taking them out of the logical location they are at.
+     */
+    void clear() {
+        for (int i = 0; i < size; i++) {
+            leaveLocation(i);
+            board[i] = null;
+        }
+        size = 0;
+        distanceClock = 0;
+        wheel.clear(0);
+    }
+
+    /*
+    =====================================================================
+                                CHECKPOINTS
+    =====================================================================
+     */
+
+    /**
+     * Copy every ball's state into a checkpoint.
+     * @param checkpoint : Checkpoint - Where to save the balls, its arrays are reused if they are big enough.
+     */
+    void save(Checkpoint checkpoint) {
+        checkpoint.reserve(size, stride);
+        if (eventDriven) {
+            // Positions are only worked out when asked for in this mode
+            for (int i = 0; i < size; i++) {
+                x[i] = getX(i);
+                y[i] = getY(i);
+            }
+        }
+        checkpoint.distance = distanceClock;
+        checkpoint.size = size;
+        checkpoint.stride = stride;
+        System.arraycopy(x, 0, checkpoint.x, 0, size);
+        System.arraycopy(y, 0, checkpoint.y, 0, size);
+        System.arraycopy(pathIndex, 0, checkpoint.pathIndex, 0, size);
+        System.arraycopy(tag, 0, checkpoint.tag, 0, size);
+        System.arraycopy(node, 0, checkpoint.node, 0, size);
+        System.arraycopy(choiceIndex, 0, checkpoint.choiceIndex, 0, size);
+        System.arraycopy(pathWords, 0, checkpoint.pathWords, 0, size);
+        System.arraycopy(stage, 0, checkpoint.stage, 0, size);
+        System.arraycopy(choices, 0, checkpoint.choices, 0, size * stride);
+        System.arraycopy(ballRandom, 0, checkpoint.ballRandom, 0, size);
+        System.arraycopy(legStart, 0, checkpoint.legStart, 0, size);
+        System.arraycopy(legLength, 0, checkpoint.legLength, 0, size);
+
+        // Balls only ever refer to a handful of compiled boards, so store a small index instead of a reference
+        Map<CompiledBoard, Integer> boardIndices = new IdentityHashMap<>();
+        for (int i = 0; i < size; i++) {
+            Integer index = boardIndices.get(board[i]);
+            if (index == null) {
+                index = boardIndices.size();
+                boardIndices.put(board[i], index);
+            }
+            checkpoint.board[i] = (short) (int) index;
+        }
+        checkpoint.ballBoards = new CompiledBoard[boardIndices.size()];
+        for (Map.Entry<CompiledBoard, Integer> entry : boardIndices.entrySet()) {
+            checkpoint.ballBoards[entry.getValue()] = entry.getKey();
+        }
+    }
+
+    /**
+     * Replace every ball with the balls saved in a checkpoint, putting them back into the logical locations
+     * they were at.
+     * @param checkpoint : Checkpoint - The checkpoint to restore.
+     */
+    void restore(Checkpoint checkpoint) {
+        clear();
+        while (x.length < checkpoint.size) {
+            grow();
+        }
+        if (checkpoint.stride > stride) {
+            growStride(checkpoint.stride);
+        }
+        size = checkpoint.size;
+        distanceClock = checkpoint.distance;
+        wheel.clear(currentTick());
+        System.arraycopy(checkpoint.x, 0, x, 0, size);
+        System.arraycopy(checkpoint.y, 0, y, 0, size);
+        System.arraycopy(checkpoint.pathIndex, 0, pathIndex, 0, size);
+        System.arraycopy(checkpoint.tag, 0, tag, 0, size);
+        System.arraycopy(checkpoint.node, 0, node, 0, size);
+        System.arraycopy(checkpoint.choiceIndex, 0, choiceIndex, 0, size);
+        System.arraycopy(checkpoint.pathWords, 0, pathWords, 0, size);
+        System.arraycopy(checkpoint.stage, 0, stage, 0, size);
+        System.arraycopy(checkpoint.ballRandom, 0, ballRandom, 0, size);
+        System.arraycopy(checkpoint.legStart, 0, legStart, 0, size);
+        System.arraycopy(checkpoint.legLength, 0, legLength, 0, size);
+        // Dragging a board keeps its compiled form, so the checkpoint still matches but its positions are stale
+        boolean boardsMoved = checkpoint.anyBoardMoved();
+        for (int i = 0; i < size; i++) {
+            System.arraycopy(checkpoint.choices, i * checkpoint.stride, choices, i * stride, checkpoint.stride);
+            Arrays.fill(choices, i * stride + checkpoint.stride, (i + 1) * stride, 0);
+            board[i] = checkpoint.ballBoards[checkpoint.board[i]];
+
+            switch (stage[i]) {
+                case AT_PEG:
+                    fromX[i] = board[i].getPegX(node[i]);
+                    fromY[i] = board[i].getPegY(node[i]);
+                    break;
+                case AT_COLUMN_TOP:
+                    fromX[i] = board[i].getColumnTopX(node[i]);
+                    fromY[i] = board[i].getColumnTopY(node[i]);
+                    break;
+                default:
+                    fromX[i] = board[i].getColumnBottomX(node[i]);
+                    fromY[i] = board[i].getColumnBottomY(node[i]);
+                    break;
+            }
+            setTarget(i);
+            if (boardsMoved) {
+                // The saved position is from before the drag, so put the leg back there and move it like boardMoved()
+                float fromDx = checkpoint.getShiftX(board[i]);
+                float fromDy = checkpoint.getShiftY(board[i]);
+                float toDx = checkpoint.getShiftX(targetBoard(i));
+                float toDy = checkpoint.getShiftY(targetBoard(i));
+                fromX[i] -= fromDx;
+                fromY[i] -= fromDy;
+                toX[i] -= toDx;
+                toY[i] -= toDy;
+                shiftLeg(i, fromDx, fromDy, toDx, toDy);
+            }
+            if (eventDriven) {
+                wheel.schedule(i, arrivalTick(i));
+            }
+            joinLocation(i);
+        }
+    }
+
+    /*
+    =====================================================================
+                                 MOVEMENT
+    =====================================================================
+     */
+
+    /**
+     * Move every ball along its path. Balls that have landed in a final bucket are folded into
+     * the bucket's counters and removed, so the cost of an update only depends on the balls still falling.
+     * @param distance : float - How far each ball travels.
+     * @param parallel : boolean - Whether to move the balls on the common ForkJoinPool when there are enough of them.
+     */
+    void update(float distance, boolean parallel) {
+        if (eventDriven) {
+            updateEvents(distance);
+            return;
+        }
+        int chunks = (size + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        if (logs.length < chunks) {
+            int oldLength = logs.length;
+            logs = Arrays.copyOf(logs, chunks);
+            for (int c = oldLength; c < chunks; c++) {
+                logs[c] = new MembershipLog();
+            }
+        }
+
+        if (parallel && size >= PARALLEL_THRESHOLD && ForkJoinPool.getCommonPoolParallelism() > 1) {
+            // Boards compile themselves lazily, make sure that doesn't happen on several threads at once
+            for (Board b : simulation.getConfiguration().getBoards()) {
+                b.getCompiled();
+            }
+            ForkJoinPool.commonPool().invoke(new MoveTask(0, chunks, distance));
+        } else {
+            for (int c = 0; c < chunks; c++) {
+                moveChunk(c, distance);
+            }
+        }
+
+        // Apply the logged changes ball by ball, going backwards so the ball swapped into a retired ball's slot
+        // has already been dealt with. This is the same order a single-threaded update would make them in.
+        for (int c = chunks - 1; c >= 0; c--) {
+            MembershipLog log = logs[c];
+            int entry = 0;
+            for (int i = Math.min((c + 1) * CHUNK_SIZE, size) - 1; i >= c * CHUNK_SIZE; i--) {
+                for (; entry < log.size && log.slots[entry] == i; entry++) {
+                    applyLogEntry(log, entry);
+                }
+                if (isFinal(i) && isLiquified(i)) {
+                    retire(i);
+                }
+            }
+        }
+    }
+
+    /**
+     * Move the distance clock on and deal with the balls that have reached their next logical location since
+     * the last update. Balls part way along a leg aren't touched at all.
+     */
+    private void updateEvents(float distance) {
+        distanceClock += distance;
+        int fired = wheel.advance(currentTick());
+        int[] expired = wheel.getExpired();
+        // Highest slot first, so the ball swapped into a retired ball's slot has already been dealt with
+        Arrays.sort(expired, 0, fired);
+        for (int k = fired - 1; k >= 0; k--) {
+            arrive(expired[k]);
+        }
+    }
+
+    /**
+     * Take a ball through every logical location it has reached by now, then schedule its next arrival
+     * (or retire it if it has finished).
+     */
+    private void arrive(int i) {
+        eventLog.size = 0;
+        while (!isFinal(i) && legStart[i] + legLength[i] <= distanceClock) {
+            double arrival = legStart[i] + legLength[i];
+            advance(i, eventLog);
+            startLeg(i, arrival);
+        }
+        for (int entry = 0; entry < eventLog.size; entry++) {
+            applyLogEntry(eventLog, entry);
+        }
+        if (isFinal(i)) {
+            retire(i);
+        } else {
+            wheel.schedule(i, arrivalTick(i));
+        }
+    }
+
+    /**
+     * Record when a ball started its current leg and how long the leg is.
+     */
+    private void startLeg(int i, double start) {
+        legStart[i] = start;
+        legLength[i] = (float) Math.hypot(toX[i] - fromX[i], toY[i] - fromY[i]);
+    }
+
+    // The first tick by which the ball has reached the end of its leg
+    private long arrivalTick(int i) {
+        return (long) Math.ceil((legStart[i] + legLength[i]) / TICK_LENGTH);
+    }
+
+    private long currentTick() {
+        return (long) Math.floor(distanceClock / TICK_LENGTH);
+    }
+
+    /**
+     * Get how far along its leg a ball is in event-driven mode, from the distance clock.
+     */
+    private float legProgress(int i) {
+        if (legLength[i] == 0) {
+            return 1;
+        }
+        double progress = (distanceClock - legStart[i]) / legLength[i];
+        return (float) Math.min(1, Math.max(0, progress));
+    }
+
+    /**
+     * Move the balls in one chunk of slots, logging which logical locations they leave and join.
+     * Only touches the store's arrays for these slots, so chunks can be moved on different threads.
+     */
+    private void moveChunk(int chunk, float distance) {
+        MembershipLog log = logs[chunk];
+        log.size = 0;
+        for (int i = Math.min((chunk + 1) * CHUNK_SIZE, size) - 1; i >= chunk * CHUNK_SIZE; i--) {
+            move(i, distance, log);
+        }
+    }
+
+    private void applyLogEntry(MembershipLog log, int entry) {
+        // Buckets count balls by their tag, so the ball is counted with the tag it had when it made this move
+        ColumnTop top = log.boards[entry].getColumnTop(log.columns[entry]);
+        if (log.stages[entry] == AT_COLUMN_TOP) {
+            if (log.joined[entry]) {
+                top.addBall(log.tags[entry]);
+            } else {
+                top.removeBall(log.tags[entry]);
+            }
+        } else {
+            if (log.joined[entry]) {
+                top.getColumnBottom().addBall(log.tags[entry]);
+            } else {
+                top.getColumnBottom().removeBall(log.tags[entry]);
+            }
+        }
+    }
+
+    /**
+     * Count a ball in the column it is at, if it is at one (pegs don't count their balls, see countAtPeg()).
+     */
+    void joinLocation(int i) {
+        if (stage[i] == AT_COLUMN_TOP) {
+            board[i].getColumnTop(node[i]).addBall(tag[i]);
+        } else if (stage[i] == AT_COLUMN_BOTTOM) {
+            board[i].getColumnTop(node[i]).getColumnBottom().addBall(tag[i]);
+        }
+    }
+
+    /**
+     * Stop counting a ball in the column it is at, if it is at one.
+     */
+    void leaveLocation(int i) {
+        if (stage[i] == AT_COLUMN_TOP) {
+            board[i].getColumnTop(node[i]).removeBall(tag[i]);
+        } else if (stage[i] == AT_COLUMN_BOTTOM) {
+            board[i].getColumnTop(node[i]).getColumnBottom().removeBall(tag[i]);
+        }
+    }
+
+    /**
+     * Splits a range of chunks in half until each task moves a single chunk.
+     */
+    private class MoveTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int firstChunk;
+        private final int lastChunk; // exclusive
+        private final float distance;
+
+        MoveTask(int firstChunk, int lastChunk, float distance) {
+            this.firstChunk = firstChunk;
+            this.lastChunk = lastChunk;
+            this.distance = distance;
+        }
+
+        @Override
+        protected void compute() {
+            if (lastChunk - firstChunk <= 1) {
+                if (lastChunk > firstChunk) {
+                    moveChunk(firstChunk, distance);
+                }
+                return;
+            }
+            int middle = (firstChunk + lastChunk) >>> 1;
+            invokeAll(new MoveTask(firstChunk, middle, distance), new MoveTask(middle, lastChunk, distance));
+        }
+    }
+
+    /**
+     * The column tops and bottoms balls left (joined == false) or joined during an update, in the order they
+     * did so, with the tag each ball had at the time. Each column is logged as its board, stage and index.
+     */
+    private static final class MembershipLog {
+        int size = 0;
+        int[] slots = new int[64];
+        int[] tags = new int[64];
+        boolean[] joined = new boolean[64];
+        CompiledBoard[] boards = new CompiledBoard[64];
+        byte[] stages = new byte[64];
+        int[] columns = new int[64];
+
+        void add(int slot, CompiledBoard board, byte stage, int column, int tag, boolean join) {
+            if (size == slots.length) {
+                slots = Arrays.copyOf(slots, size * 2);
+                tags = Arrays.copyOf(tags, size * 2);
+                joined = Arrays.copyOf(joined, size * 2);
+                boards = Arrays.copyOf(boards, size * 2);
+                stages = Arrays.copyOf(stages, size * 2);
+                columns = Arrays.copyOf(columns, size * 2);
+            }
+            slots[size] = slot;
+            tags[size] = tag;
+            joined[size] = join;
+            boards[size] = board;
+            stages[size] = stage;
+            columns[size] = column;
+            size++;
+        }
+    }
+
+    /**
+     * Take a ball that has finished out of the store, recording it in its bucket's settled ball counters.
+     * @param i : int - The slot of the ball.
+     */
+    private void retire(int i) {
+        ColumnBottom bottom = board[i].getColumnTop(node[i]).getColumnBottom();
+        bottom.removeBall(tag[i]);
+        bottom.getBucket().addSettledBall(tag[i]);
+        remove(i);
+    }
+
+    private void move(int i, float f, MembershipLog log) {
+        while (!isFinal(i)) {
+            float dx = toX[i] - fromX[i];
+            float dy = toY[i] - fromY[i];
+            float distance = (float) Math.sqrt(dx * dx + dy * dy);
+            if (distance == 0) {
+                advance(i, log);
+                continue;
+            }
+            float moveX = dx * f / distance;
+            float moveY = dy * f / distance;
+            float remainingX = toX[i] - x[i];
+            float remainingY = toY[i] - y[i];
+            if (remainingX * dx + remainingY * dy < moveX * dx + moveY * dy) {
+                // This step takes the ball all the way to the next logical location in its path
+                x[i] = toX[i];
+                y[i] = toY[i];
+                advance(i, log);
+                float remaining = (float) Math.sqrt(remainingX * remainingX + remainingY * remainingY);
+                f = (f - remaining) / distance;
+            } else {
+                x[i] += moveX;
+                y[i] += moveY;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Move a ball on to the next logical location in its path.
+     * @param log : MembershipLog - Where to record the columns the ball leaves and joins.
+     */
+    private void advance(int i, MembershipLog log) {
+        if (stage[i] != AT_PEG) {
+            log.add(i, board[i], stage[i], node[i], tag[i], false);
+        }
+        // Tag the ball before it joins the next location, so it is counted in the next bucket with its new tag
+        if (stage[i] == AT_COLUMN_BOTTOM) {
+            int exitTag = board[i].getExitTagId(node[i]);
+            if (exitTag != CompiledBoard.NO_TAG) {
+                tag[i] = exitTag;
+            }
+        }
+        applyGivenTags(i);
+
+        switch (stage[i]) {
+            case AT_PEG:
+                int successor = board[i].next(node[i], choice(i));
+                if (CompiledBoard.isColumn(successor)) {
+                    stage[i] = AT_COLUMN_TOP;
+                    node[i] = CompiledBoard.toColumn(successor);
+                } else {
+                    node[i] = successor;
+                    if (lazyPaths) {
+                        decide(i);
+                    }
+                }
+                break;
+            case AT_COLUMN_TOP:
+                stage[i] = AT_COLUMN_BOTTOM;
+                break;
+            default:
+                choiceIndex[i] += board[i].getChoiceWords();
+                board[i] = board[i].getOutput(node[i]).getCompiled();
+                stage[i] = AT_PEG;
+                node[i] = 0;
+                if (lazyPaths) {
+                    decide(i);
+                }
+                break;
+        }
+        if (stage[i] != AT_PEG) {
+            log.add(i, board[i], stage[i], node[i], tag[i], true);
+        }
+        pathIndex[i]++;
+        fromX[i] = toX[i];
+        fromY[i] = toY[i];
+        setTarget(i);
+    }
+
+    /**
+     * Work out where a ball is heading from the compiled board geometry, without allocating.
+     */
+    private void setTarget(int i) {
+        CompiledBoard compiled = board[i];
+        switch (stage[i]) {
+            case AT_PEG:
+                int successor = compiled.next(node[i], choice(i));
+                if (CompiledBoard.isColumn(successor)) {
+                    toX[i] = compiled.getColumnTopX(CompiledBoard.toColumn(successor));
+                    toY[i] = compiled.getColumnTopY(CompiledBoard.toColumn(successor));
+                } else {
+                    toX[i] = compiled.getPegX(successor);
+                    toY[i] = compiled.getPegY(successor);
+                }
+                break;
+            case AT_COLUMN_TOP:
+                toX[i] = compiled.getColumnBottomX(node[i]);
+                toY[i] = compiled.getColumnBottomY(node[i]);
+                break;
+            default:
+                if (isFinal(i)) { // finished, stay put
+                    toX[i] = fromX[i];
+                    toY[i] = fromY[i];
+                } else {
+                    Board output = compiled.getOutput(node[i]);
+                    toX[i] = output.getCompiled().getPegX(0);
+                    toY[i] = output.getCompiled().getPegY(0);
+                }
+                break;
+        }
+    }
+
+    /**
+     * Give a ball the tags handed out by the logical location it is at (or leaving).
+     */
+    private void applyGivenTags(int i) {
+        int newTag;
+        switch (stage[i]) {
+            case AT_PEG:
+                newTag = board[i].getPegTagId(node[i], choice(i));
+                break;
+            case AT_COLUMN_TOP:
+                newTag = board[i].getColumnTopTagId(node[i]);
+                break;
+            default:
+                newTag = board[i].getColumnBottomTagId(node[i]);
+                break;
+        }
+        // Set the tag directly, the ball isn't counted in any bucket while it is between locations
+        if (newTag != CompiledBoard.NO_TAG) {
+            tag[i] = newTag;
+        }
+    }
+
+    /**
+     * Draw which way a ball falls at the peg it has just reached, from its own random stream
+     * (so balls can be moved on any thread and still fall the same way).
+     */
+    private void decide(int i) {
+        long state = ballRandom[i] + SplitMixRandom.GOLDEN_GAMMA;
+        ballRandom[i] = state;
+        double u = (SplitMixRandom.mix(state) >>> 11) * 0x1.0p-53;
+        long left = u < board[i].leftProb(node[i]) ? 1 : 0;
+        choices[i * stride] = choices[i * stride] << 1 | left;
+    }
+
+    private boolean choice(int i) {
+        if (lazyPaths) {
+            return (choices[i * stride] & 1) != 0;
+        }
+        int row = board[i].getPegRow(node[i]);
+        return BallPath.fallsLeft(choices, i * stride + choiceIndex[i], row);
+    }
+
+    /**
+     * Shift the balls travelling to or from a board that is being dragged.
+     * @param moved : Board - The board being moved.
+     * @param dx : float - How far the board moved horizontally.
+     * @param dy : float - How far the board moved vertically.
+     */
+    public void boardMoved(Board moved, float dx, float dy) {
+        for (int i = 0; i < size; i++) {
+            boolean fromMoved = board[i].getBoard() == moved;
+            boolean toMoved = targetBoard(i).getBoard() == moved;
+            if (fromMoved || toMoved) {
+                shiftLeg(i, fromMoved ? dx : 0, fromMoved ? dy : 0, toMoved ? dx : 0, toMoved ? dy : 0);
+            }
+        }
+    }
+
+    /**
+     * Move the ends of a ball's current leg, keeping the ball the same proportion of the way along it.
+     */
+    private void shiftLeg(int i, float fromDx, float fromDy, float toDx, float toDy) {
+        float travelled = getTravelledProportion(i);
+        x[i] += fromDx + (toDx - fromDx) * travelled;
+        y[i] += fromDy + (toDy - fromDy) * travelled;
+        fromX[i] += fromDx;
+        fromY[i] += fromDy;
+        toX[i] += toDx;
+        toY[i] += toDy;
+        if (eventDriven) {
+            // The leg has changed length, so work out when the ball now arrives
+            float length = (float) Math.hypot(toX[i] - fromX[i], toY[i] - fromY[i]);
+            legStart[i] = distanceClock - travelled * length;
+            legLength[i] = length;
+            wheel.schedule(i, arrivalTick(i));
+        }
+    }
+
+    /**
+     * Get the board the end of a ball's current leg is on, the next board's root peg for a ball leaving
+     * a column that outputs to another board.
+     */
+    private CompiledBoard targetBoard(int i) {
+        if (stage[i] == AT_COLUMN_BOTTOM && !isFinal(i)) {
+            return board[i].getOutput(node[i]).getCompiled();
+        }
+        return board[i];
+    }
+
+    /*
+    =====================================================================
+                                 GETTERS
+    =====================================================================
+     */
+
+    /**
+     * Getter for the number of balls in the store (balls are in slots 0 to size() - 1).
+     * @return The number of balls.
+     */
+    public int size() {
+        return size;
+    }
+
+    public float getX(int i) {
+        if (eventDriven) {
+            return fromX[i] + (toX[i] - fromX[i]) * legProgress(i);
+        }
+        return x[i];
+    }
+
+    public float getY(int i) {
+        if (eventDriven) {
+            return fromY[i] + (toY[i] - fromY[i]) * legProgress(i);
+        }
+        return y[i];
+    }
+
+    public int getTagId(int i) {
+        return tag[i];
+    }
+
+    public String getTag(int i) {
+        return TagRegistry.registry.getName(tag[i]);
+    }
+
+    void setTag(int i, int newTag) {
+        if (newTag == tag[i]) {
+            return;
+        }
+        int oldTag = tag[i];
+        tag[i] = newTag;
+        // Buckets count the balls in their columns by tag
+        if (stage[i] != AT_PEG) {
+            board[i].getBucket(node[i]).retagBall(oldTag, newTag);
+        }
+    }
+
+    public int getPathIndex(int i) {
+        return pathIndex[i];
+    }
+
+    /**
+     * Get a view of one ball, which is only valid until the store next changes.
+     * @param i : int - The slot of the ball.
+     * @return The view.
+     */
+    public Ball getHandle(int i) {
+        return new Ball(this, i);
+    }
+
+    /**
+     * Count the balls at a peg, for the UI. Pegs don't keep track of their balls, so this looks through the store.
+     * @param pegBoard : Board - The board the peg is on.
+     * @param peg : int - The index of the peg.
+     * @return The number of balls that have reached the peg and not yet left it.
+     */
+    public int countAtPeg(Board pegBoard, int peg) {
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            // A ball still on its first leg hasn't reached the root peg yet
+            if (stage[i] == AT_PEG && node[i] == peg && pathIndex[i] != 0 && board[i].getBoard() == pegBoard) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Check whether a ball has reached the bottom of a column whose bucket has no output, or (with paths drawn
+     * up front) one it has no choices left for, because its path was cut short by a loop of boards.
+     * @param i : int - The slot of the ball.
+     * @return True if the ball has nowhere left to go.
+     */
+    public boolean isFinal(int i) {
+        return stage[i] == AT_COLUMN_BOTTOM && (board[i].getOutput(node[i]) == null
+                || !lazyPaths && choiceIndex[i] + board[i].getChoiceWords() >= pathWords[i]);
+    }
+
+    /**
+     * Check whether a ball has landed in a bucket and should be drawn as part of the liquid rather than as a ball.
+     * @param i : int - The slot of the ball.
+     * @return True if the ball is liquified.
+     */
+    public boolean isLiquified(int i) {
+        return stage[i] == AT_COLUMN_BOTTOM && getY(i) >= fromY[i];
+    }
+
+    /**
+     * Get how far along the current leg of its path a ball is.
+     * @param i : int - The slot of the ball.
+     * @return 0 at the last logical location, 1 at the next one.
+     */
+    public float getTravelledProportion(int i) {
+        if (eventDriven) {
+            return legProgress(i);
+        }
+        float lastDist = (float) Math.hypot(fromX[i] - x[i], fromY[i] - y[i]);
+        float nextDist = (float) Math.hypot(toX[i] - x[i], toY[i] - y[i]);
+        if (lastDist + nextDist == 0) {
+            return 0;
+        }
+        return lastDist / (lastDist + nextDist);
+    }
+
+    /**
+     * Get the logical location a ball is at (or has most recently passed).
+     * @param i : int - The slot of the ball.
+     * @return The peg, column top or column bottom.
+     */
+    public LogicalLocation getLogLoc(int i) {
+        CompiledBoard compiled = board[i];
+        switch (stage[i]) {
+            case AT_PEG:
+                return compiled.getPeg(node[i]);
+            case AT_COLUMN_TOP:
+                return compiled.getColumnTop(node[i]);
+            default:
+                return compiled.getColumnTop(node[i]).getColumnBottom();
+        }
+    }
+
+    /**
+     * Get the logical location a ball is travelling towards.
+     * @param i : int - The slot of the ball.
+     * @return The next peg, column top or column bottom, or the current location if the ball has finished.
+     */
+    public LogicalLocation getNextLogLoc(int i) {
+        CompiledBoard compiled = board[i];
+        switch (stage[i]) {
+            case AT_PEG:
+                int successor = compiled.next(node[i], choice(i));
+                if (CompiledBoard.isColumn(successor)) {
+                    return compiled.getColumnTop(CompiledBoard.toColumn(successor));
+                }
+                return compiled.getPeg(successor);
+            case AT_COLUMN_TOP:
+                return compiled.getColumnTop(node[i]).getColumnBottom();
+            default:
+                if (isFinal(i)) {
+                    return getLogLoc(i);
+                }
+                return compiled.getOutput(node[i]).getCompiled().getPeg(0);
+        }
+    }
+}
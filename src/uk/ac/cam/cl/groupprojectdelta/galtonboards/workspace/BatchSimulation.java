@@ -0,0 +1,260 @@
+package uk.ac.cam.cl.groupprojectdelta.galtonboards.workspace;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import uk.ac.cam.cl.groupprojectdelta.galtonboards.workspace.board.Board;
+import uk.ac.cam.cl.groupprojectdelta.galtonboards.workspace.board.Bucket;
+import uk.ac.cam.cl.groupprojectdelta.galtonboards.workspace.board.CompiledBoard;
+
+/**
+ * Headless engine that pushes a large number of balls through a configuration to build bucket histograms.
+ * Each board a ball passes through is decided with a single sample from its compiled board (see CompiledBoard),
+ * so no Ball objects, paths, animation or OpenGL context are needed, and nothing is allocated per ball.
+ */
+public class BatchSimulation {
+
+    private final Configuration configuration;
+
+    // Every board reachable from the start board (the start board is index 0)
+    private final List<CompiledBoard> boards = new ArrayList<>();
+
+    // Every bucket reachable from the start board, a board's buckets start at its bucket offset
+    private final List<Bucket> buckets = new ArrayList<>();
+    private int[] bucketOffsets;
+
+    // outputs[board][column] is the index of the board a column leads to, or -1 for a final bucket
+    private int[][] outputs;
+
+    // Every tag a ball can be given on its way down, interned to a dense index ("untagged" is 0)
+    private final List<String> tags = new ArrayList<>();
+    private final Map<String, Integer> tagIndices = new HashMap<>();
+
+    /**
+     * Create a batch engine for a configuration. The board graph is read when run() is called,
+     * so the configuration should not be edited while a run is in progress.
+     * @param configuration : Configuration - The boards to push balls through.
+     */
+    public BatchSimulation(Configuration configuration) {
+        this.configuration = configuration;
+    }
+
+    /**
+     * Push ballCount balls through the configuration, starting at the root peg of the start board.
+     * @param ballCount : long - How many balls to simulate.
+     * @param seed : long - Seed for the peg decisions, the same seed always gives the same histogram.
+     * @return The number of balls that finished in each bucket, split by tag.
+     */
+    public Result run(long ballCount, long seed) {
+        Board root = configuration.getStartBoard();
+        collectGraph(root);
+        Result result = new Result(buckets, tags);
+        if (root == null) {
+            return result;
+        }
+
+        RandomSource random = new SplitMixRandom(seed);
+        for (long n = 0; n < ballCount; n++) {
+            int board = 0;
+            int tag = 0;
+            int hops = 0;
+            while (true) {
+                // Sample the column the ball lands in (and the last peg tag it was given) in one go,
+                // rather than falling through the peg grid
+                CompiledBoard compiled = boards.get(board);
+                int outcome = compiled.sampleOutcome(random);
+                String pegTag = compiled.getOutcomeTag(outcome);
+                if (pegTag != null) {
+                    tag = tagIndices.get(pegTag);
+                }
+                int column = compiled.getOutcomeColumn(outcome);
+
+                String columnTag = compiled.getColumnTag(column);
+                if (columnTag != null) {
+                    tag = tagIndices.get(columnTag);
+                }
+                int nextBoard = outputs[board][column];
+                if (nextBoard == -1) { // this is the final bucket
+                    result.counts[bucketOffsets[board] + compiled.getBucketIndex(column)][tag]++;
+                    break;
+                }
+                String exitTag = compiled.getExitTag(column);
+                if (exitTag != null) {
+                    tag = tagIndices.get(exitTag);
+                }
+                board = nextBoard;
+                if (++hops > CompiledBoard.MAX_BOARD_HOPS) {
+                    CompiledBoard.reportLoop("stopping the batch simulation early");
+                    return result;
+                }
+            }
+            result.ballCount++;
+        }
+        return result;
+    }
+
+    /**
+     * Walk every board reachable from the root, compiling it and indexing its buckets and the tags it hands out.
+     * @param root : Board - The board that balls are spawned into (given index 0).
+     */
+    private void collectGraph(Board root) {
+        boards.clear();
+        buckets.clear();
+        tags.clear();
+        tagIndices.clear();
+        internTag("untagged");
+        if (root == null) {
+            return;
+        }
+
+        Map<Board, Integer> boardIndices = new IdentityHashMap<>();
+        Deque<Board> toVisit = new ArrayDeque<>();
+        toVisit.add(root);
+        boardIndices.put(root, 0);
+        while (!toVisit.isEmpty()) {
+            CompiledBoard compiled = toVisit.poll().getCompiled();
+            boards.add(compiled);
+            for (int i = 0; i < compiled.getPegCount(); i++) {
+                if (compiled.getPegTag(i, true) != null) {
+                    internTag(compiled.getPegTag(i, true));
+                    internTag(compiled.getPegTag(i, false));
+                }
+            }
+            for (int c = 0; c < compiled.getColumnCount(); c++) {
+                if (compiled.getColumnTag(c) != null) {
+                    internTag(compiled.getColumnTag(c));
+                }
+                if (compiled.getExitTag(c) != null) {
+                    internTag(compiled.getExitTag(c));
+                }
+            }
+            for (int b = 0; b < compiled.getBucketCount(); b++) {
+                buckets.add(compiled.getBucketAt(b));
+                Board next = compiled.getBucketAt(b).getOutput();
+                if (next != null && !boardIndices.containsKey(next)) {
+                    boardIndices.put(next, boardIndices.size());
+                    toVisit.add(next);
+                }
+            }
+        }
+
+        // Boards were compiled in the order they were indexed, so board indices match positions in boards
+        bucketOffsets = new int[boards.size()];
+        outputs = new int[boards.size()][];
+        int offset = 0;
+        for (int i = 0; i < boards.size(); i++) {
+            CompiledBoard compiled = boards.get(i);
+            bucketOffsets[i] = offset;
+            offset += compiled.getBucketCount();
+            outputs[i] = new int[compiled.getColumnCount()];
+            for (int c = 0; c < compiled.getColumnCount(); c++) {
+                Board next = compiled.getOutput(c);
+                outputs[i][c] = next == null ? -1 : boardIndices.get(next);
+            }
+        }
+    }
+
+    private void internTag(String tag) {
+        if (!tagIndices.containsKey(tag)) {
+            tagIndices.put(tag, tags.size());
+            tags.add(tag);
+        }
+    }
+
+    /**
+     * The bucket histogram produced by a batch run.
+     */
+    public static class Result {
+        private final List<Bucket> buckets;
+        private final List<String> tags;
+        private final Map<Bucket, Integer> bucketIndices = new IdentityHashMap<>();
+
+        // counts[bucket][tag] is how many balls with that tag finished in that bucket
+        final long[][] counts;
+        long ballCount;
+
+        Result(List<Bucket> buckets, List<String> tags) {
+            this.buckets = new ArrayList<>(buckets);
+            this.tags = new ArrayList<>(tags);
+            for (int i = 0; i < buckets.size(); i++) {
+                bucketIndices.put(buckets.get(i), i);
+            }
+            this.counts = new long[buckets.size()][tags.size()];
+        }
+
+        /**
+         * Getter for the number of balls that made it to a final bucket.
+         * @return The number of balls simulated.
+         */
+        public long getBallCount() {
+            return ballCount;
+        }
+
+        /**
+         * Getter for every bucket reachable from the start board (including ones that feed other boards).
+         * @return The list of buckets.
+         */
+        public List<Bucket> getBuckets() {
+            return buckets;
+        }
+
+        /**
+         * Get how many balls finished in a bucket.
+         * @param bucket : Bucket - The bucket to look up.
+         * @return The number of balls, 0 if the bucket isn't reachable or feeds another board.
+         */
+        public long getCount(Bucket bucket) {
+            Integer i = bucketIndices.get(bucket);
+            if (i == null) {
+                return 0;
+            }
+            long total = 0;
+            for (long count : counts[i]) {
+                total += count;
+            }
+            return total;
+        }
+
+        /**
+         * Get how many balls of each tag finished in a bucket.
+         * @param bucket : Bucket - The bucket to look up.
+         * @return Map of tag to number of balls, only tags with at least one ball are included.
+         */
+        public Map<String, Long> getCountsByTag(Bucket bucket) {
+            Map<String, Long> byTag = new LinkedHashMap<>();
+            Integer i = bucketIndices.get(bucket);
+            if (i != null) {
+                for (int t = 0; t < tags.size(); t++) {
+                    if (counts[i][t] != 0) {
+                        byTag.put(tags.get(t), counts[i][t]);
+                    }
+                }
+            }
+            return byTag;
+        }
+
+        /**
+         * Get how many balls of each tag finished in any final bucket.
+         * @return Map of tag to number of balls, only tags with at least one ball are included.
+         */
+        public Map<String, Long> getCountsByTag() {
+            Map<String, Long> byTag = new LinkedHashMap<>();
+            for (int t = 0; t < tags.size(); t++) {
+                long total = 0;
+                for (long[] bucketCounts : counts) {
+                    total += bucketCounts[t];
+                }
+                if (total != 0) {
+                    byTag.put(tags.get(t), total);
+                }
+            }
+            return byTag;
+        }
+    }
+}
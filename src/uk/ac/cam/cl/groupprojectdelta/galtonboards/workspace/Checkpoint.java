@@ -0,0 +1,144 @@
+package uk.ac.cam.cl.groupprojectdelta.galtonboards.workspace;
+
+import java.util.Arrays;
+
+import uk.ac.cam.cl.groupprojectdelta.galtonboards.workspace.board.Board;
+import uk.ac.cam.cl.groupprojectdelta.galtonboards.workspace.board.Bucket;
+import uk.ac.cam.cl.groupprojectdelta.galtonboards.workspace.board.CompiledBoard;
+
+/**
+ * Everything needed to carry on a simulation from the start of one of its steps: the balls in flight,
+ * the settled ball counters of every bucket, and the simulation's own counters and random state.
+ * Ball positions are kept but the points they travel between aren't, as those come from the boards.
+ * Which logical locations hold which balls isn't kept either, it is rebuilt from the ball state on restore.
+ * The arrays are reused when a checkpoint is overwritten, so recording one doesn't allocate once they're big enough.
+ */
+final class Checkpoint {
+    long step; // how many steps the simulation had run
+
+    float bucketScale;
+    float timeTillNextBall;
+    RandomSource random;
+
+    // The boards at the time, compiled, so a checkpoint from before an edit can be recognised
+    Board[] boards;
+    CompiledBoard[] compiledBoards;
+    // Where each board was, as boards can be dragged without being recompiled
+    float[] originX;
+    float[] originY;
+
+    // Settled ball counters by tag, for every bucket of every board
+    Bucket[] buckets;
+    int[][] settledBalls;
+
+    // The BallStore's arrays for the balls in flight (see BallStore.save())
+    double distance; // the BallStore's distance clock
+    int size;
+    int stride;
+    float[] x = new float[0];
+    float[] y = new float[0];
+    int[] pathIndex = new int[0];
+    int[] tag = new int[0];
+    int[] node = new int[0];
+    int[] choiceIndex = new int[0];
+    int[] pathWords = new int[0];
+    byte[] stage = new byte[0];
+    short[] board = new short[0]; // index into ballBoards
+    CompiledBoard[] ballBoards;
+    long[] choices = new long[0];
+    long[] ballRandom = new long[0];
+    double[] legStart = new double[0];
+    float[] legLength = new float[0];
+
+    /**
+     * Make sure the ball arrays can hold a number of balls.
+     * @param balls : int - The number of balls.
+     * @param stride : int - The number of choice words per ball.
+     */
+    void reserve(int balls, int stride) {
+        if (x.length < balls) {
+            int capacity = Math.max(balls, x.length + x.length / 2);
+            x = Arrays.copyOf(x, capacity);
+            y = Arrays.copyOf(y, capacity);
+            pathIndex = Arrays.copyOf(pathIndex, capacity);
+            tag = Arrays.copyOf(tag, capacity);
+            node = Arrays.copyOf(node, capacity);
+            choiceIndex = Arrays.copyOf(choiceIndex, capacity);
+            pathWords = Arrays.copyOf(pathWords, capacity);
+            stage = Arrays.copyOf(stage, capacity);
+            board = Arrays.copyOf(board, capacity);
+            ballRandom = Arrays.copyOf(ballRandom, capacity);
+            legStart = Arrays.copyOf(legStart, capacity);
+            legLength = Arrays.copyOf(legLength, capacity);
+        }
+        if (choices.length < balls * stride) {
+            choices = new long[Math.max(balls * stride, choices.length + choices.length / 2)];
+        }
+    }
+
+    /**
+     * Check whether the simulation's boards are still exactly as they were when this was recorded.
+     * @param boards : Iterable<Board> - The boards now.
+     * @return True if the checkpoint can be restored.
+     */
+    boolean matches(Iterable<Board> boards) {
+        int b = 0;
+        for (Board current : boards) {
+            if (b == this.boards.length || current != this.boards[b] || current.getCompiled() != compiledBoards[b]) {
+                return false;
+            }
+            b++;
+        }
+        return b == this.boards.length;
+    }
+
+    /**
+     * Check whether any of the boards has been dragged since this was recorded.
+     * @return True if a board has moved.
+     */
+    boolean anyBoardMoved() {
+        for (int b = 0; b < compiledBoards.length; b++) {
+            if (getShiftX(compiledBoards[b]) != 0 || getShiftY(compiledBoards[b]) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Get how far a board has been dragged horizontally since this was recorded.
+     * @param compiled : CompiledBoard - One of the checkpoint's compiled boards.
+     * @return The distance, 0 for a board the checkpoint doesn't know.
+     */
+    float getShiftX(CompiledBoard compiled) {
+        int b = indexOf(compiled);
+        return b < 0 ? 0 : compiled.getOriginX() - originX[b];
+    }
+
+    /**
+     * Get how far a board has been dragged vertically since this was recorded.
+     * @param compiled : CompiledBoard - One of the checkpoint's compiled boards.
+     * @return The distance, 0 for a board the checkpoint doesn't know.
+     */
+    float getShiftY(CompiledBoard compiled) {
+        int b = indexOf(compiled);
+        return b < 0 ? 0 : compiled.getOriginY() - originY[b];
+    }
+
+    private int indexOf(CompiledBoard compiled) {
+        for (int b = 0; b < compiledBoards.length; b++) {
+            if (compiledBoards[b] == compiled) {
+                return b;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Getter for roughly how much memory the checkpoint's arrays take up.
+     * @return The size in bytes.
+     */
+    long getByteSize() {
+        return x.length * 47L + choices.length * 8L;
+    }
+}
@@ -0,0 +1,105 @@
+package uk.ac.cam.cl.groupprojectdelta.galtonboards.workspace;
+
+/**
+ * A bounded ring buffer of the checkpoints recorded every few steps of a simulation. Once it is full the
+ * oldest checkpoint is overwritten (reusing its arrays), so memory use stays bounded however long the
+ * simulation runs. Any step since the oldest checkpoint can be reached by restoring the latest checkpoint
+ * before it and running the steps in between again.
+ */
+final class CheckpointHistory {
+    private final Checkpoint[] ring;
+    private final int interval;
+    private int oldest = 0; // index in ring of the oldest checkpoint
+    private int count = 0;
+
+    /**
+     * Create an empty history.
+     * @param interval : int - How many steps apart checkpoints are recorded.
+     * @param capacity : int - How many checkpoints to keep.
+     */
+    CheckpointHistory(int interval, int capacity) {
+        this.interval = Math.max(1, interval);
+        ring = new Checkpoint[Math.max(1, capacity)];
+    }
+
+    /**
+     * Check whether a checkpoint should be recorded before a step.
+     * @param step : long - The number of steps run so far.
+     * @return True if a checkpoint is due.
+     */
+    boolean isDue(long step) {
+        return step % interval == 0;
+    }
+
+    /**
+     * Get the checkpoint to record a step into. Checkpoints from this step on are forgotten first,
+     * as they belong to a run that has since been rewound.
+     * @param step : long - The step being recorded.
+     * @return The checkpoint to fill in.
+     */
+    Checkpoint add(long step) {
+        while (count > 0 && get(count - 1).step >= step) {
+            count--;
+        }
+        if (count == ring.length) {
+            oldest = (oldest + 1) % ring.length;
+            count--;
+        }
+        int index = (oldest + count) % ring.length;
+        if (ring[index] == null) {
+            ring[index] = new Checkpoint();
+        }
+        ring[index].step = step;
+        count++;
+        return ring[index];
+    }
+
+    /**
+     * Get the latest checkpoint at or before a step.
+     * @param step : long - The step.
+     * @return The checkpoint, or null if the step is before the oldest checkpoint.
+     */
+    Checkpoint latestAt(long step) {
+        for (int i = count - 1; i >= 0; i--) {
+            if (get(i).step <= step) {
+                return get(i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Check whether a checkpoint has been recorded for a step.
+     * @param step : long - The step.
+     * @return True if there is a checkpoint for exactly that step.
+     */
+    boolean contains(long step) {
+        Checkpoint checkpoint = latestAt(step);
+        return checkpoint != null && checkpoint.step == step;
+    }
+
+    /**
+     * Forget every checkpoint (the arrays are kept for reuse).
+     */
+    void clear() {
+        oldest = 0;
+        count = 0;
+    }
+
+    /**
+     * Getter for the earliest step that can still be reached.
+     * @return The step of the oldest checkpoint, or -1 if there are none.
+     */
+    long getEarliestStep() {
+        return count == 0 ? -1 : get(0).step;
+    }
+
+    int getInterval() {
+        return interval;
+    }
+
+    // The i-th oldest checkpoint
+    private Checkpoint get(int i) {
+        return ring[(oldest + i) % ring.length];
+    }
+}
@@ -5,6 +5,7 @@ import java.util.stream.Collector;
 
 import org.joml.Vector2f;
 import uk.ac.cam.cl.groupprojectdelta.galtonboards.graphics.Drawable;
+import uk.ac.cam.cl.groupprojectdelta.galtonboards.graphics.MeshBuffer;
 import uk.ac.cam.cl.groupprojectdelta.galtonboards.workspace.board.*;
 import uk.ac.cam.cl.groupprojectdelta.galtonboards.workspace.board.ui.PipeEditHandle;
 import uk.ac.cam.cl.groupprojectdelta.galtonboards.workspace.mouse.ClickableMap;
@@ -138,6 +139,10 @@ public class Configuration implements Drawable, ClickableMap {
     return null;
   }
 
+  public List<Board> getBoards() {
+    return boards;
+  }
+
   public void setStartBoard(Board board) {
     if (boards.contains(board)) {
       boards.remove(board);
@@ -160,30 +165,19 @@ public class Configuration implements Drawable, ClickableMap {
   }
 
   @Override
-  public List<Float> getMesh(float time) {
-    List<Float> mesh = new ArrayList<>();
-    for (Board board : boards) {
-      mesh.addAll(board.getMesh(time));
-    }
-    return mesh;
-  }
-
-  @Override
-  public List<Float> getUV() {
-    List<Float> uv = new ArrayList<>();
+  public int getVertexCount() {
+    int count = 0;
     for (Board board : boards) {
-      uv.addAll(board.getUV());
+      count += board.getVertexCount();
     }
-    return uv;
+    return count;
   }
 
   @Override
-  public List<Float> getColourTemplate() {
-    List<Float> ct = new ArrayList<>();
+  public void writeMesh(float time, MeshBuffer buffer) {
     for (Board board : boards) {
-      ct.addAll(board.getColourTemplate());
+      board.writeMesh(time, buffer);
     }
-    return ct;
   }
 
   @Override
@@ -0,0 +1,289 @@
+package uk.ac.cam.cl.groupprojectdelta.galtonboards.workspace;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import uk.ac.cam.cl.groupprojectdelta.galtonboards.workspace.board.Board;
+import uk.ac.cam.cl.groupprojectdelta.galtonboards.workspace.board.Bucket;
+import uk.ac.cam.cl.groupprojectdelta.galtonboards.workspace.board.CompiledBoard;
+
+/**
+ * Computes the exact probability of a ball reaching each bucket, without simulating any balls.
+ * Each board's compiled outcome weights (see CompiledBoard.getOutcomeWeights(), worked out once per board with a
+ * dynamic programming pass over its pegs) split the mass arriving at it between its columns, which are collapsed
+ * into buckets, then carried into downstream boards in topological order.
+ * Mass is kept separately per tag so tagged pegs and buckets split it the same way they would tag balls.
+ */
+public class ExactDistribution {
+
+    private final Configuration configuration;
+
+    // Boards reachable from the start board, in an order where every board comes after all of its inputs
+    private final List<Board> boards = new ArrayList<>();
+
+    private final List<Bucket> buckets = new ArrayList<>();
+    private final Map<Bucket, Integer> bucketIndices = new IdentityHashMap<>();
+
+    // Every tag a ball can be given on its way down, interned to a dense index ("untagged" is 0)
+    private final List<String> tags = new ArrayList<>();
+    private final Map<String, Integer> tagIndices = new HashMap<>();
+
+    /**
+     * Create an exact solver for a configuration. The board graph is read when compute() is called.
+     * @param configuration : Configuration - The boards to compute the distribution for.
+     */
+    public ExactDistribution(Configuration configuration) {
+        this.configuration = configuration;
+    }
+
+    /**
+     * Compute the probability of a ball spawned at the root peg of the start board reaching each bucket.
+     * @return The probabilities of every reachable bucket, split by tag.
+     */
+    public Result compute() {
+        Board root = configuration.getStartBoard();
+        collectGraph(root);
+        Result result = new Result(buckets, tags);
+        if (root == null) {
+            return result;
+        }
+
+        // inflow[board][tag] is the mass arriving at a board's root peg
+        Map<Board, double[]> inflow = new IdentityHashMap<>();
+        double[] rootInflow = new double[tags.size()];
+        rootInflow[0] = 1;
+        inflow.put(root, rootInflow);
+
+        for (Board board : boards) {
+            double[] in = inflow.get(board);
+            if (in != null) {
+                propagate(board, in, inflow, result);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Split the mass arriving at a board between its columns and into its buckets,
+     * adding anything that leaves through a bucket output to the next board's inflow.
+     */
+    private void propagate(Board board, double[] in, Map<Board, double[]> inflow, Result result) {
+        CompiledBoard compiled = board.getCompiled();
+        int tagCount = tags.size();
+        double[][] columnMass = new double[tagCount][compiled.getColumnCount()];
+        double total = 0;
+        for (double m : in) {
+            total += m;
+        }
+
+        // The board works out how a ball dropped on its root peg splits between columns and peg tags once
+        // (the same weights its alias table samples from), so the pegs aren't walked again for every tag
+        double[] weights = compiled.getOutcomeWeights();
+        for (int o = 0; o < weights.length; o++) {
+            if (weights[o] == 0) {
+                continue;
+            }
+            int c = compiled.getOutcomeColumn(o);
+            String pegTag = compiled.getOutcomeTag(o);
+            if (pegTag != null) {
+                // A tagged peg re-tags everything going through it
+                columnMass[tagIndices.get(pegTag)][c] += total * weights[o];
+            } else {
+                for (int t = 0; t < tagCount; t++) {
+                    columnMass[t][c] += in[t] * weights[o];
+                }
+            }
+        }
+
+        // Collapse columns into buckets, and pass anything with an output on to the next board
+        for (int c = 0; c < compiled.getColumnCount(); c++) {
+            retag(compiled.getColumnTag(c), columnMass, c);
+            int b = bucketIndices.get(compiled.getBucket(c));
+            for (int t = 0; t < tagCount; t++) {
+                result.probabilities[b][t] += columnMass[t][c];
+            }
+            Board next = compiled.getOutput(c);
+            if (next != null) {
+                double[] nextIn = inflow.computeIfAbsent(next, k -> new double[tagCount]);
+                String exitTag = compiled.getExitTag(c);
+                for (int t = 0; t < tagCount; t++) {
+                    int outTag = exitTag == null ? t : tagIndices.get(exitTag);
+                    nextIn[outTag] += columnMass[t][c];
+                }
+            }
+        }
+    }
+
+    /**
+     * Columns hand out the first tag in their list to everything that falls through them.
+     */
+    private void retag(String givenTag, double[][] columnMass, int c) {
+        if (givenTag != null) {
+            int newTag = tagIndices.get(givenTag);
+            double total = 0;
+            for (double[] tagMass : columnMass) {
+                total += tagMass[c];
+                tagMass[c] = 0;
+            }
+            columnMass[newTag][c] = total;
+        }
+    }
+
+    /**
+     * Find every board reachable from the root in topological order, indexing their buckets and tags.
+     * @param root : Board - The board that balls are spawned into.
+     */
+    private void collectGraph(Board root) {
+        boards.clear();
+        buckets.clear();
+        bucketIndices.clear();
+        tags.clear();
+        tagIndices.clear();
+        internTag("untagged");
+        if (root == null) {
+            return;
+        }
+
+        // Count how many reachable bucket outputs lead into each board
+        Map<Board, Integer> inDegree = new IdentityHashMap<>();
+        Deque<Board> toVisit = new ArrayDeque<>();
+        toVisit.add(root);
+        inDegree.put(root, 0);
+        List<Board> reachable = new ArrayList<>();
+        while (!toVisit.isEmpty()) {
+            Board board = toVisit.poll();
+            reachable.add(board);
+            for (Bucket bucket : board.getBuckets()) {
+                Board next = bucket.getOutput();
+                if (next != null) {
+                    if (!inDegree.containsKey(next)) {
+                        inDegree.put(next, 0);
+                        toVisit.add(next);
+                    }
+                    inDegree.put(next, inDegree.get(next) + 1);
+                }
+            }
+        }
+
+        // Kahn's algorithm: a board is ready once all of the buckets feeding it have been processed
+        Deque<Board> ready = new ArrayDeque<>();
+        ready.add(root);
+        while (!ready.isEmpty()) {
+            Board board = ready.poll();
+            boards.add(board);
+            for (Bucket bucket : board.getBuckets()) {
+                Board next = bucket.getOutput();
+                if (next != null && next != root) {
+                    int remaining = inDegree.get(next) - 1;
+                    inDegree.put(next, remaining);
+                    if (remaining == 0) {
+                        ready.add(next);
+                    }
+                }
+            }
+        }
+        if (boards.size() != reachable.size()) {
+            CompiledBoard.reportLoop("the exact distribution ignores boards on the loop");
+        }
+
+        for (Board board : reachable) {
+            CompiledBoard compiled = board.getCompiled();
+            for (int i = 0; i < compiled.getPegCount(); i++) {
+                if (compiled.getPegTag(i, true) != null) {
+                    internTag(compiled.getPegTag(i, true));
+                    internTag(compiled.getPegTag(i, false));
+                }
+            }
+            for (int c = 0; c < compiled.getColumnCount(); c++) {
+                if (compiled.getColumnTag(c) != null) {
+                    internTag(compiled.getColumnTag(c));
+                }
+                if (compiled.getExitTag(c) != null) {
+                    internTag(compiled.getExitTag(c));
+                }
+            }
+            for (Bucket bucket : board.getBuckets()) {
+                bucketIndices.put(bucket, buckets.size());
+                buckets.add(bucket);
+            }
+        }
+    }
+
+    private void internTag(String tag) {
+        if (!tagIndices.containsKey(tag)) {
+            tagIndices.put(tag, tags.size());
+            tags.add(tag);
+        }
+    }
+
+    /**
+     * The exact probability of reaching each bucket.
+     */
+    public static class Result {
+        private final List<Bucket> buckets;
+        private final List<String> tags;
+        private final Map<Bucket, Integer> bucketIndices = new IdentityHashMap<>();
+
+        // probabilities[bucket][tag] is the probability of a ball with that tag reaching that bucket
+        final double[][] probabilities;
+
+        Result(List<Bucket> buckets, List<String> tags) {
+            this.buckets = new ArrayList<>(buckets);
+            this.tags = new ArrayList<>(tags);
+            for (int i = 0; i < buckets.size(); i++) {
+                bucketIndices.put(buckets.get(i), i);
+            }
+            this.probabilities = new double[buckets.size()][tags.size()];
+        }
+
+        /**
+         * Getter for every bucket reachable from the start board.
+         * @return The list of buckets.
+         */
+        public List<Bucket> getBuckets() {
+            return buckets;
+        }
+
+        /**
+         * Get the probability of a ball reaching a bucket. For a bucket with no output this is the
+         * probability of the ball finishing there, for one with an output it is the probability of passing through.
+         * @param bucket : Bucket - The bucket to look up.
+         * @return The probability, 0 if the bucket isn't reachable.
+         */
+        public double getProbability(Bucket bucket) {
+            Integer i = bucketIndices.get(bucket);
+            if (i == null) {
+                return 0;
+            }
+            double total = 0;
+            for (double p : probabilities[i]) {
+                total += p;
+            }
+            return total;
+        }
+
+        /**
+         * Get the probability of a ball reaching a bucket with each tag.
+         * @param bucket : Bucket - The bucket to look up.
+         * @return Map of tag to probability, only tags with a non-zero probability are included.
+         */
+        public Map<String, Double> getProbabilitiesByTag(Bucket bucket) {
+            Map<String, Double> byTag = new LinkedHashMap<>();
+            Integer i = bucketIndices.get(bucket);
+            if (i != null) {
+                for (int t = 0; t < tags.size(); t++) {
+                    if (probabilities[i][t] != 0) {
+                        byTag.put(tags.get(t), probabilities[i][t]);
+                    }
+                }
+            }
+            return byTag;
+        }
+    }
+}
@@ -3,7 +3,6 @@ package uk.ac.cam.cl.groupprojectdelta.galtonboards.workspace;
 import org.joml.Vector2f;
 
 import java.util.List;
-import java.util.Set;
 import uk.ac.cam.cl.groupprojectdelta.galtonboards.workspace.board.Board;
 
 public interface LogicalLocation {
@@ -11,11 +10,8 @@ public interface LogicalLocation {
     // Implemented by Peg and Bucket.
     abstract Vector2f getWorldPos();
 
-    abstract Set<Ball> balls();
-
-    abstract void addBall(Ball ball);
-
-    abstract void removeBall(Ball ball);
+    // How many animated balls are at this location. Balls are counted rather than kept, see BallStore.
+    abstract int getBallCount();
 
     abstract Board getBoard();
 
@@ -0,0 +1,32 @@
+package uk.ac.cam.cl.groupprojectdelta.galtonboards.workspace;
+
+/**
+ * A source of random numbers for the simulation. Every random decision (which way a ball falls, which
+ * outcome a board gives) goes through one of these, so a run can be reproduced from its seed.
+ * Sources aren't thread-safe, instead each thread or stream of balls should be given its own with split().
+ */
+public interface RandomSource {
+    // Uniformly distributed over all 2^64 values
+    long nextLong();
+
+    /**
+     * Get a uniformly distributed double.
+     * @return A value in [0, 1).
+     */
+    default double nextDouble() {
+        return (nextLong() >>> 11) * 0x1.0p-53;
+    }
+
+    /**
+     * Create a new source whose numbers are independent of the ones this source goes on to give,
+     * advancing this source in the process.
+     * @return The new source.
+     */
+    RandomSource split();
+
+    /**
+     * Create a source in the same state as this one, that will give the same numbers from now on.
+     * @return The copy.
+     */
+    RandomSource copy();
+}
@@ -1,15 +1,15 @@
 package uk.ac.cam.cl.groupprojectdelta.galtonboards.workspace;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 import org.joml.Vector3f;
-import uk.ac.cam.cl.groupprojectdelta.galtonboards.graphics.Drawable;
+import uk.ac.cam.cl.groupprojectdelta.galtonboards.graphics.BallBuffer;
 import uk.ac.cam.cl.groupprojectdelta.galtonboards.workspace.board.Board;
+import uk.ac.cam.cl.groupprojectdelta.galtonboards.workspace.board.Bucket;
+import uk.ac.cam.cl.groupprojectdelta.galtonboards.workspace.board.CompiledBoard;
 
-public class Simulation implements Drawable {
+public class Simulation {
     public static Simulation simulation;
 
     private Configuration configuration;
@@ -17,13 +17,32 @@ public class Simulation implements Drawable {
     public enum SimulationState {Running, Rewind, Paused, Stopped}
 
     public float speed = 4f;
-    private List<Ball> balls;
+    private BallStore balls;
     public float timeBetweenBalls = 0.005f;
     public float timeTillNextBall = 0;
     private SimulationState simulationState;
     private float bucketScale = 1f; // the number of balls that will fill a bucket
+    private boolean fastForward = false; // send balls straight to their final bucket instead of animating them
+    private boolean parallelUpdate = true; // move balls on several threads when there are enough of them
+    private final SimulationClock clock = new SimulationClock(); // splits frame times into fixed steps
 
-    public Map<String, Vector3f> tagColours = new HashMap<>();
+    // Every peg decision is drawn from random, which restarts from the seed whenever the simulation is stopped.
+    // Tag colours have their own stream so that adding a tag doesn't change where balls go.
+    private long seed;
+    private RandomSource random;
+    private RandomSource colourRandom;
+
+    // Checkpoints for going back in time, recorded every CHECKPOINT_INTERVAL steps (see seek()).
+    // With the default step this keeps the last 10 seconds.
+    private static final int CHECKPOINT_INTERVAL = 30;
+    private static final int CHECKPOINT_CAPACITY = 40;
+    private final CheckpointHistory history = new CheckpointHistory(CHECKPOINT_INTERVAL, CHECKPOINT_CAPACITY);
+    private long stepIndex = 0; // how many steps have been run since the simulation was stopped
+    private long latestStep = 0; // the furthest the simulation has got since it was stopped, for seeking forwards
+
+    // Tags are interned to small ids so that balls, buckets and the render code never hash them
+    private final TagRegistry tags = TagRegistry.registry;
+    private final int untagged = tags.intern("untagged");
 
     public void run() {
         /*if (simulationState == SimulationState.Running) {
@@ -32,9 +51,19 @@ public class Simulation implements Drawable {
         simulationState = SimulationState.Running;
     }
 
+    /**
+     * Play the simulation backwards, until it gets back to the oldest checkpoint (see seek()).
+     * A stopped simulation has nothing to go back to, so it stays stopped.
+     */
+    public void rewind() {
+        if (simulationState == SimulationState.Stopped) {
+            return;
+        }
+        simulationState = SimulationState.Rewind;
+    }
+
     public boolean rewinding() {
-        //if (simulationState == SimulationState.Rewind) return true;
-        return false;
+        return simulationState == SimulationState.Rewind;
     }
 
     public void pause() {
@@ -43,46 +72,76 @@ public class Simulation implements Drawable {
 
     public void stop() {
         simulationState = SimulationState.Stopped;
-        for (Ball ball : balls) {
-            ball.getLogLoc().removeBall(ball);
+        balls.clear();
+        clock.reset();
+        setSeed(seed);
+        history.clear();
+        stepIndex = 0;
+        latestStep = 0;
+        for (Board board : configuration.getBoards()) {
+            for (Bucket bucket : board.getBuckets()) {
+                bucket.clearSettledBalls();
+            }
         }
         bucketScale = 1f;
-        balls.clear();
     }
 
     public Simulation(Configuration configuration) {
         this.configuration = configuration;
         configuration.setSimulation(this);
-        balls = new ArrayList<>();
-        tagColours.put("untagged", new Vector3f(0.4f, 0f, 0.4f));
-        tagColours.put("testtag1", new Vector3f(1f,0f,0f));
-        tagColours.put("testtag2", new Vector3f(0f, 1f, 0f));
-        tagColours.put("factory1", new Vector3f(0f, 0f, 1f));
-        tagColours.put("factory2", new Vector3f(1f, 0.5f, 0f));
-        tagColours.put("healthy", new Vector3f(0f, 0.75f, 0.2f));
-        tagColours.put("sick", new Vector3f(0.8f, 0.1f, 0.1f));
+        balls = new BallStore(this);
+        setSeed(System.nanoTime());
+        tags.setColour("untagged", new Vector3f(0.4f, 0f, 0.4f));
+        tags.setColour("testtag1", new Vector3f(1f,0f,0f));
+        tags.setColour("testtag2", new Vector3f(0f, 1f, 0f));
+        tags.setColour("factory1", new Vector3f(0f, 0f, 1f));
+        tags.setColour("factory2", new Vector3f(1f, 0.5f, 0f));
+        tags.setColour("healthy", new Vector3f(0f, 0.75f, 0.2f));
+        tags.setColour("sick", new Vector3f(0.8f, 0.1f, 0.1f));
         simulationState = SimulationState.Stopped;
     }
 
     public void addBallTag(String tag, Vector3f colour) {
-        tagColours.put(tag, colour);
+        tags.setColour(tag, colour);
     }
 
     public void addBallTag(String tag) {
-        addBallTag(tag, new Vector3f((float)Math.random(), (float)Math.random(), (float)Math.random()));
+        addBallTag(tag, new Vector3f((float)colourRandom.nextDouble(), (float)colourRandom.nextDouble(),
+                (float)colourRandom.nextDouble()));
+    }
+
+    public int getTagColourVersion() {
+        return tags.getVersion();
     }
 
     public Vector3f getTagColour(String tag) {
-        return tagColours.getOrDefault(tag, new Vector3f(1f,0f,1f));
+        int id = tags.intern(tag);
+        return new Vector3f(tags.getRed(id), tags.getGreen(id), tags.getBlue(id));
     }
 
-    public List<Ball> getBalls() {
+    public TagRegistry getTagRegistry() {
+        return tags;
+    }
+
+    /**
+     * Get the id a tag is stored as, giving it a new id if it hasn't been seen before.
+     * @param tag : String - The tag.
+     * @return The tag's id.
+     */
+    public int getTagId(String tag) {
+        return tags.intern(tag);
+    }
+
+    public String getTagName(int id) {
+        return tags.getName(id);
+    }
+
+    public BallStore getBalls() {
         return balls;
     }
 
-    public void spawnBall(LogicalLocation startingPosition) {
-        Ball ball = new Ball(startingPosition, this);
-        balls.add(ball);
+    public void spawnBall(Board startBoard) {
+        balls.spawn(startBoard);
     }
 
     public void spawnBallAtRoot() {
@@ -91,11 +150,150 @@ public class Simulation implements Drawable {
             // Failing silently shouldn't be too bad for this case
             return;
         }
-        spawnBall(getRootBoard().getRootPeg());
+        spawnBall(rootBoard);
+    }
+
+    /**
+     * Drop a batch of balls at the root of the start board. Their paths are drawn and they are added to the
+     * ball store all in one go, rather than one ball at a time.
+     * @param count : int - How many balls to drop.
+     * @param source : RandomSource - Where to draw the balls' paths from.
+     */
+    public void spawnBalls(int count, RandomSource source) {
+        Board rootBoard = getRootBoard();
+        if (rootBoard == null) {
+            return;
+        }
+        balls.spawn(rootBoard, count, source);
+    }
+
+    /**
+     * Drop a ball at the root of the start board and put it straight into its final bucket.
+     * Each board it passes through is decided with a single draw from the board's alias table,
+     * so no Ball object or peg-level path is ever created.
+     */
+    public void settleBallAtRoot() {
+        Board board = getRootBoard();
+        int tag = untagged;
+        for (int hops = 0; board != null; hops++) {
+            if (hops > CompiledBoard.MAX_BOARD_HOPS) {
+                CompiledBoard.reportLoop("dropping the ball");
+                return;
+            }
+            CompiledBoard compiled = board.getCompiled();
+            int outcome = compiled.sampleOutcome(random);
+            int column = compiled.getOutcomeColumn(outcome);
+            if (compiled.getOutcomeTagId(outcome) != CompiledBoard.NO_TAG) {
+                tag = compiled.getOutcomeTagId(outcome);
+            }
+            if (compiled.getColumnTopTagId(column) != CompiledBoard.NO_TAG) {
+                tag = compiled.getColumnTopTagId(column);
+            }
+            if (compiled.getColumnBottomTagId(column) != CompiledBoard.NO_TAG) {
+                tag = compiled.getColumnBottomTagId(column);
+            }
+            board = compiled.getOutput(column);
+            if (board == null) { // this is the final bucket
+                compiled.getBucket(column).addSettledBall(tag);
+            } else if (compiled.getExitTagId(column) != CompiledBoard.NO_TAG) {
+                tag = compiled.getExitTagId(column);
+            }
+        }
+    }
+
+    public boolean isFastForward() {
+        return fastForward;
     }
 
-    public void deleteBall(Ball ball) {
-        this.balls.remove(ball);
+    /**
+     * Choose whether new balls are animated down the boards or sent straight to their final bucket.
+     * Balls already on the boards keep being animated either way.
+     * @param fastForward : boolean - True to stop animating new balls.
+     */
+    public void setFastForward(boolean fastForward) {
+        this.fastForward = fastForward;
+    }
+
+    public boolean isParallelUpdate() {
+        return parallelUpdate;
+    }
+
+    /**
+     * Choose whether balls can be moved on several threads. Either way the balls end up in the same places.
+     * @param parallelUpdate : boolean - True to split updates with lots of balls across the common ForkJoinPool.
+     */
+    public void setParallelUpdate(boolean parallelUpdate) {
+        this.parallelUpdate = parallelUpdate;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Restart the random numbers from a seed. With the same configuration and seed, the same number of balls
+     * always ends up in the same buckets.
+     * @param seed : long - The seed.
+     */
+    public void setSeed(long seed) {
+        this.seed = seed;
+        random = new SplitMixRandom(seed);
+        colourRandom = random.split();
+    }
+
+    public RandomSource getRandom() {
+        return random;
+    }
+
+    /**
+     * Draw the peg decisions from a different source, until the simulation is stopped or given a new seed.
+     * @param random : RandomSource - The source to use.
+     */
+    public void setRandomSource(RandomSource random) {
+        this.random = random;
+    }
+
+    public boolean isLazyPaths() {
+        return balls.isLazyPaths();
+    }
+
+    /**
+     * Choose whether balls draw which way they fall at each peg as they reach it (the default), or draw their
+     * whole path when they are spawned. Can only be changed while the simulation is stopped.
+     * @param lazyPaths : boolean - True to draw each choice as it is needed.
+     */
+    public void setLazyPaths(boolean lazyPaths) {
+        if (simulationState != SimulationState.Stopped) {
+            System.err.println("Ball paths can only be changed while the simulation is stopped.");
+            return;
+        }
+        balls.setLazyPaths(lazyPaths);
+    }
+
+    public boolean isEventDriven() {
+        return balls.isEventDriven();
+    }
+
+    /**
+     * Choose whether every ball is moved each step (the default), or balls are only updated when they reach a peg,
+     * column or bucket, with their positions worked out when they are drawn. Can only be changed while the
+     * simulation is stopped.
+     * @param eventDriven : boolean - True to schedule ball arrivals instead of moving every ball.
+     */
+    public void setEventDriven(boolean eventDriven) {
+        if (simulationState != SimulationState.Stopped) {
+            System.err.println("How balls are moved can only be changed while the simulation is stopped.");
+            return;
+        }
+        balls.setEventDriven(eventDriven);
+    }
+
+    public SimulationClock getClock() {
+        return clock;
+    }
+
+    public Configuration getConfiguration() {
+        return configuration;
     }
 
     public Board getRootBoard() {
@@ -129,41 +327,157 @@ public class Simulation implements Drawable {
             }
         }*/
         if (simulationState == SimulationState.Running) {
-            for (Ball ball : balls) {
-                ball.update(deltaTime);
+            // Run whole fixed steps so the results don't depend on the frame rate, and a slow frame doesn't
+            // make balls jump or spawn all at once
+            int steps = clock.advance(deltaTime);
+            for (int i = 0; i < steps; i++) {
+                step(clock.getStep(), true);
             }
-            timeTillNextBall -= deltaTime;
-            while (timeTillNextBall < 0) {
-                spawnBallAtRoot();
-                timeTillNextBall += timeBetweenBalls;
+        } else if (simulationState == SimulationState.Rewind) {
+            long target = stepIndex - clock.advance(deltaTime);
+            if (target <= history.getEarliestStep() || !seek(target)) {
+                // As far back as the history goes
+                seek(Math.max(history.getEarliestStep(), 0));
+                simulationState = SimulationState.Paused;
             }
         }
     }
 
-    @Override
-    public List<Float> getMesh(float time) {
-        List<Float> mesh = new ArrayList<>();
-        for (Ball ball : balls) {
-            mesh.addAll(ball.getMesh(time));
+    /**
+     * Move the simulation to the start of an earlier or later step. Going back restores the latest checkpoint
+     * at or before the step and runs the steps in between again, so every ball ends up exactly where it was
+     * (as long as the speed and spawn rate haven't been changed since).
+     * @param step : long - The step to go to, counted from when the simulation was last stopped.
+     * @return True if the simulation is now at the step, false if it is further back than the checkpoints go
+     * (or the boards have been edited since), in which case nothing is changed.
+     */
+    public boolean seek(long step) {
+        if (step < stepIndex) {
+            Checkpoint checkpoint = history.latestAt(step);
+            if (checkpoint == null || !checkpoint.matches(configuration.getBoards())) {
+                return false;
+            }
+            restoreCheckpoint(checkpoint);
         }
-        return mesh;
+        while (stepIndex < step) {
+            // Replaying goes over steps that may already have checkpoints (the one just restored, at least),
+            // which are still right, so they aren't copied again
+            step(clock.getStep(), !history.contains(stepIndex));
+        }
+        return true;
     }
 
-    @Override
-    public List<Float> getUV() {
-        List<Float> uv = new ArrayList<>();
-        for (Ball ball : balls) {
-            uv.addAll(ball.getUV());
+    /**
+     * Getter for how many steps have been run since the simulation was last stopped.
+     * @return The current step.
+     */
+    public long getStepIndex() {
+        return stepIndex;
+    }
+
+    /**
+     * Getter for the furthest step the simulation has run to since it was last stopped. After going back,
+     * seek() can go forwards to it again.
+     * @return The step.
+     */
+    public long getLatestStep() {
+        return Math.max(latestStep, stepIndex);
+    }
+
+    /**
+     * Getter for the earliest step seek() can go back to.
+     * @return The step, or -1 if no checkpoints have been recorded.
+     */
+    public long getEarliestStep() {
+        return history.getEarliestStep();
+    }
+
+    private void saveCheckpoint(Checkpoint checkpoint) {
+        checkpoint.bucketScale = bucketScale;
+        checkpoint.timeTillNextBall = timeTillNextBall;
+        checkpoint.random = random.copy();
+
+        List<Board> boards = configuration.getBoards();
+        checkpoint.boards = boards.toArray(new Board[0]);
+        checkpoint.compiledBoards = new CompiledBoard[boards.size()];
+        checkpoint.originX = new float[boards.size()];
+        checkpoint.originY = new float[boards.size()];
+        List<Bucket> buckets = new ArrayList<>();
+        for (int b = 0; b < boards.size(); b++) {
+            checkpoint.compiledBoards[b] = boards.get(b).getCompiled();
+            checkpoint.originX[b] = checkpoint.compiledBoards[b].getOriginX();
+            checkpoint.originY[b] = checkpoint.compiledBoards[b].getOriginY();
+            buckets.addAll(boards.get(b).getBuckets());
+        }
+        checkpoint.buckets = buckets.toArray(new Bucket[0]);
+        checkpoint.settledBalls = new int[buckets.size()][];
+        for (int b = 0; b < buckets.size(); b++) {
+            checkpoint.settledBalls[b] = buckets.get(b).getSettledBallsByTag();
+        }
+
+        balls.save(checkpoint);
+    }
+
+    private void restoreCheckpoint(Checkpoint checkpoint) {
+        balls.restore(checkpoint);
+        for (int b = 0; b < checkpoint.buckets.length; b++) {
+            checkpoint.buckets[b].setSettledBallsByTag(checkpoint.settledBalls[b]);
         }
-        return uv;
+        // Restored last, as putting the balls back can enlarge the buckets
+        bucketScale = checkpoint.bucketScale;
+        timeTillNextBall = checkpoint.timeTillNextBall;
+        random = checkpoint.random.copy();
+        stepIndex = checkpoint.step;
+    }
+
+    /**
+     * Advance the simulation by one fixed step.
+     * @param stepTime : float - The length of the step in seconds.
+     * @param record : boolean - Whether to record a checkpoint if one is due.
+     */
+    private void step(float stepTime, boolean record) {
+        if (record && history.isDue(stepIndex)) {
+            saveCheckpoint(history.add(stepIndex));
+        }
+        stepIndex++;
+        latestStep = Math.max(latestStep, stepIndex);
+        balls.update(stepTime * speed, parallelUpdate);
+        timeTillNextBall -= stepTime;
+        int due = 0;
+        while (timeTillNextBall < 0) {
+            due++;
+            timeTillNextBall += timeBetweenBalls;
+        }
+        if (fastForward) {
+            for (int i = 0; i < due; i++) {
+                settleBallAtRoot();
+            }
+        } else {
+            spawnBalls(due, random);
+        }
+    }
+
+    public int getBallCount() {
+        return balls.size();
+    }
+
+    /**
+     * Getter for the size of a ball, which the ball shader scales its quad by.
+     * @return The width (and height) of a ball.
+     */
+    public float getBallSize() {
+        return Ball.RADIUS;
     }
 
-    @Override
-    public List<Float> getColourTemplate() {
-        List<Float> ct = new ArrayList<>();
-        for (Ball ball : balls) {
-            ct.addAll(ball.getColourTemplate());
+    /**
+     * Write the position and colour of every visible ball, for drawing them instanced.
+     * Balls that have liquified in a bucket aren't written.
+     * @param buffer : BallBuffer - The buffer to write into.
+     */
+    public void writeBallInstances(BallBuffer buffer) {
+        for (int i = 0; i < balls.size(); i++) {
+            if (balls.isLiquified(i)) continue;
+            buffer.ball(balls.getX(i), balls.getY(i), tags.getColour(balls.getTagId(i)));
         }
-        return ct;
     }
 }
@@ -0,0 +1,100 @@
+package uk.ac.cam.cl.groupprojectdelta.galtonboards.workspace;
+
+/**
+ * Turns the variable time between frames into a whole number of fixed-length simulation steps.
+ * Time that doesn't make up a whole step is carried over to the next frame, so the simulation is advanced
+ * by the same steps whatever the frame rate. After a hitch at most maxSubSteps steps are run in one frame
+ * and the rest of the backlog is dropped, so a slow frame can't lead to an even slower one.
+ */
+public class SimulationClock {
+    public static final float DEFAULT_STEP = 1 / 120f;
+    public static final int DEFAULT_MAX_SUB_STEPS = 8;
+
+    private final float step;
+    private int maxSubSteps; // 0 means catch up on every step, however many there are
+
+    private double accumulator = 0; // time not yet simulated
+    private long stepCount = 0;
+
+    public SimulationClock() {
+        this(DEFAULT_STEP, DEFAULT_MAX_SUB_STEPS);
+    }
+
+    /**
+     * Create a clock.
+     * @param step : float - The length of one simulation step in seconds.
+     * @param maxSubSteps : int - The most steps to run for one frame, or 0 for no limit.
+     */
+    public SimulationClock(float step, int maxSubSteps) {
+        if (step <= 0) {
+            System.err.println(String.format("Simulation step must be positive, using %f instead of %f.",
+                    DEFAULT_STEP, step));
+            step = DEFAULT_STEP;
+        }
+        this.step = step;
+        setMaxSubSteps(maxSubSteps);
+    }
+
+    /**
+     * Add the time since the last frame, and work out how many steps should be run for it.
+     * @param frameTime : float - The time since the last frame in seconds.
+     * @return The number of steps of getStep() seconds to run.
+     */
+    public int advance(float frameTime) {
+        if (frameTime > 0) {
+            accumulator += frameTime;
+        }
+        int steps = (int) (accumulator / step);
+        accumulator -= steps * (double) step;
+        if (maxSubSteps > 0 && steps > maxSubSteps) {
+            // Too far behind to catch up, forget the steps that won't be run
+            steps = maxSubSteps;
+        }
+        stepCount += steps;
+        return steps;
+    }
+
+    /**
+     * Forget any time that hasn't been simulated yet (e.g. when the simulation is stopped).
+     */
+    public void reset() {
+        accumulator = 0;
+        stepCount = 0;
+    }
+
+    public float getStep() {
+        return step;
+    }
+
+    public int getMaxSubSteps() {
+        return maxSubSteps;
+    }
+
+    /**
+     * Set the most steps that can be run for one frame.
+     * @param maxSubSteps : int - The limit, or 0 for no limit.
+     */
+    public void setMaxSubSteps(int maxSubSteps) {
+        if (maxSubSteps < 0) {
+            System.err.println("The maximum number of sub-steps can't be negative, removing the limit.");
+            maxSubSteps = 0;
+        }
+        this.maxSubSteps = maxSubSteps;
+    }
+
+    /**
+     * Getter for how far the leftover time is through the next step (e.g. for interpolating what is drawn).
+     * @return A value in [0, 1).
+     */
+    public float getAlpha() {
+        return (float) (accumulator / step);
+    }
+
+    /**
+     * Getter for how many steps have been run since the clock was created or last reset.
+     * @return The number of steps.
+     */
+    public long getStepCount() {
+        return stepCount;
+    }
+}
@@ -0,0 +1,55 @@
+package uk.ac.cam.cl.groupprojectdelta.galtonboards.workspace;
+
+/**
+ * SplitMix64 generator: the state is a single long that is advanced by a fixed odd constant and then
+ * scrambled on the way out. It is fast, has no locks, and its whole state can be read and restored
+ * (see getState() and setState()), which makes it easy to checkpoint a simulation.
+ */
+public class SplitMixRandom implements RandomSource {
+    static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+    private long state;
+
+    /**
+     * Create a generator.
+     * @param seed : long - The seed, the same seed always gives the same numbers.
+     */
+    public SplitMixRandom(long seed) {
+        state = seed;
+    }
+
+    @Override
+    public long nextLong() {
+        state += GOLDEN_GAMMA;
+        return mix(state);
+    }
+
+    /**
+     * Scramble a state into an output, for code that keeps its own SplitMix64 state in a primitive array.
+     * @param z : long - The state, after adding GOLDEN_GAMMA to it.
+     * @return The output.
+     */
+    static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    @Override
+    public RandomSource split() {
+        return new SplitMixRandom(nextLong());
+    }
+
+    @Override
+    public RandomSource copy() {
+        return new SplitMixRandom(state);
+    }
+
+    public long getState() {
+        return state;
+    }
+
+    public void setState(long state) {
+        this.state = state;
+    }
+}
@@ -0,0 +1,119 @@
+package uk.ac.cam.cl.groupprojectdelta.galtonboards.workspace;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.joml.Vector3f;
+
+/**
+ * Interns ball tags to small dense ids, and keeps a packed 0xRRGGBB colour for each of them.
+ * Balls, buckets and the render code carry the ids, so nothing per frame needs to hash a tag
+ * or allocate a colour. Ids are shared by every simulation, so they never need translating.
+ */
+public class TagRegistry {
+    public static final TagRegistry registry = new TagRegistry();
+
+    // Colour used for tags that haven't been given one (magenta)
+    private static final int FALLBACK_COLOUR = 0xFF00FF;
+
+    private final List<String> names = new ArrayList<>();
+    private final Map<String, Integer> ids = new HashMap<>();
+    private int[] colours = new int[16];
+    private boolean[] coloured = new boolean[16];
+    private int version = 0; // changes whenever a colour is set, so cached colours can be rebuilt
+
+    /**
+     * Get the id of a tag, giving it the next free id if it hasn't been seen before.
+     * @param tag : String - The tag.
+     * @return The tag's id.
+     */
+    public int intern(String tag) {
+        Integer id = ids.get(tag);
+        if (id == null) {
+            id = names.size();
+            if (id == colours.length) {
+                colours = Arrays.copyOf(colours, id * 2);
+                coloured = Arrays.copyOf(coloured, id * 2);
+            }
+            colours[id] = FALLBACK_COLOUR;
+            ids.put(tag, id);
+            names.add(tag);
+        }
+        return id;
+    }
+
+    /**
+     * Get the tag an id stands for.
+     * @param id : int - The tag id.
+     * @return The tag.
+     */
+    public String getName(int id) {
+        return names.get(id);
+    }
+
+    /**
+     * Getter for how many tags have been interned (ids run from 0 to size() - 1).
+     * @return The number of tags.
+     */
+    public int size() {
+        return names.size();
+    }
+
+    /**
+     * Give a tag a colour, interning it if needed.
+     * @param tag : String - The tag.
+     * @param colour : Vector3f - The colour, with each component in the range [0,1].
+     */
+    public void setColour(String tag, Vector3f colour) {
+        int id = intern(tag);
+        colours[id] = pack(colour.x) << 16 | pack(colour.y) << 8 | pack(colour.z);
+        coloured[id] = true;
+        version++;
+    }
+
+    private static int pack(float component) {
+        return Math.round(Math.max(0, Math.min(1, component)) * 255);
+    }
+
+    /**
+     * Get the packed colour of a tag.
+     * @param id : int - The tag id.
+     * @return The colour as 0xRRGGBB.
+     */
+    public int getColour(int id) {
+        return colours[id];
+    }
+
+    public float getRed(int id) {
+        return (colours[id] >> 16 & 0xFF) / 255f;
+    }
+
+    public float getGreen(int id) {
+        return (colours[id] >> 8 & 0xFF) / 255f;
+    }
+
+    public float getBlue(int id) {
+        return (colours[id] & 0xFF) / 255f;
+    }
+
+    /**
+     * Getter for every tag that has been given a colour, in the order they were added (e.g. for listing them in the UI).
+     * @return The list of tags.
+     */
+    public List<String> getColouredTags() {
+        List<String> tags = new ArrayList<>();
+        for (int id = 0; id < names.size(); id++) {
+            if (coloured[id]) {
+                tags.add(names.get(id));
+            }
+        }
+        return tags;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+}
@@ -0,0 +1,214 @@
+package uk.ac.cam.cl.groupprojectdelta.galtonboards.workspace;
+
+import java.util.Arrays;
+
+/**
+ * Hierarchical timing wheel for scheduling one event per id (a BallStore slot) at a whole number tick.
+ * Level 0 has a slot for each of the next 64 ticks, and each level above covers 64 times the span of the one
+ * below. When level 0 wraps, the due slot of the level above is cascaded down, so scheduling, cancelling and
+ * firing an event are all O(1) however far ahead it is and however many other events there are.
+ * Each slot is an intrusive doubly linked list threaded through arrays indexed by id, so nothing is allocated
+ * per event, and an id can be renamed when the store moves a ball to another slot.
+ */
+final class TimingWheel {
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int LEVELS = 4;
+    private static final int NONE = -1;
+
+    // The first id in each slot, level by level
+    private final int[] heads = new int[LEVELS * SLOTS];
+    private int count = 0;
+
+    // Per id: its neighbours in its slot's list, which slot it is in (NONE if unscheduled) and when it is due
+    private int[] next = new int[0];
+    private int[] prev = new int[0];
+    private int[] slotOf = new int[0];
+    private long[] due = new long[0];
+
+    private long now;
+
+    // The ids whose events fired in the last call to advance()
+    private int[] expired = new int[64];
+
+    /**
+     * Create an empty wheel.
+     * @param now : long - The current tick.
+     */
+    TimingWheel(long now) {
+        Arrays.fill(heads, NONE);
+        this.now = now;
+    }
+
+    /**
+     * Make room for ids up to capacity - 1.
+     * @param capacity : int - The number of ids.
+     */
+    void ensureCapacity(int capacity) {
+        int oldCapacity = slotOf.length;
+        if (capacity <= oldCapacity) {
+            return;
+        }
+        next = Arrays.copyOf(next, capacity);
+        prev = Arrays.copyOf(prev, capacity);
+        slotOf = Arrays.copyOf(slotOf, capacity);
+        due = Arrays.copyOf(due, capacity);
+        Arrays.fill(slotOf, oldCapacity, capacity, NONE);
+    }
+
+    /**
+     * Schedule an id's event, replacing any event it already has. An event due now or earlier fires on the next tick.
+     * @param id : int - The id.
+     * @param tick : long - The tick the event is due at.
+     */
+    void schedule(int id, long tick) {
+        cancel(id);
+        due[id] = Math.max(tick, now + 1);
+        insert(id);
+        count++;
+    }
+
+    /**
+     * Cancel an id's event, if it has one.
+     * @param id : int - The id.
+     */
+    void cancel(int id) {
+        if (slotOf[id] == NONE) {
+            return;
+        }
+        unlink(id);
+        count--;
+    }
+
+    /**
+     * Give the event scheduled for one id to another (which mustn't have an event of its own).
+     * @param from : int - The id the event is scheduled for.
+     * @param to : int - The id to give it to.
+     */
+    void move(int from, int to) {
+        int slot = slotOf[from];
+        slotOf[to] = slot;
+        if (slot == NONE) {
+            return;
+        }
+        due[to] = due[from];
+        next[to] = next[from];
+        prev[to] = prev[from];
+        if (prev[to] == NONE) {
+            heads[slot] = to;
+        } else {
+            next[prev[to]] = to;
+        }
+        if (next[to] != NONE) {
+            prev[next[to]] = to;
+        }
+        slotOf[from] = NONE;
+    }
+
+    /**
+     * Move the wheel on to a tick, taking every event due up to and including it off the wheel.
+     * @param tick : long - The tick to move to.
+     * @return The number of events that fired, see getExpired().
+     */
+    int advance(long tick) {
+        int fired = 0;
+        while (now < tick) {
+            if (count == 0) { // nothing can fire, skip straight there
+                now = tick;
+                break;
+            }
+            now++;
+            // Cascade each level whose span has just started
+            for (int level = 1; level < LEVELS; level++) {
+                if ((now & ((1L << (level * SLOT_BITS)) - 1)) != 0) {
+                    break;
+                }
+                cascade(level * SLOTS + (int) ((now >>> (level * SLOT_BITS)) & (SLOTS - 1)));
+            }
+            int slot = (int) (now & (SLOTS - 1));
+            for (int id = heads[slot]; id != NONE; id = heads[slot]) {
+                unlink(id);
+                count--;
+                if (fired == expired.length) {
+                    expired = Arrays.copyOf(expired, fired * 2);
+                }
+                expired[fired++] = id;
+            }
+        }
+        return fired;
+    }
+
+    /**
+     * Getter for the ids whose events fired in the last call to advance(), valid until the next call.
+     * @return The ids, in the first advance() many entries.
+     */
+    int[] getExpired() {
+        return expired;
+    }
+
+    /**
+     * Cancel every event and set the current tick.
+     * @param now : long - The tick to start again from.
+     */
+    void clear(long now) {
+        Arrays.fill(heads, NONE);
+        Arrays.fill(slotOf, NONE);
+        count = 0;
+        this.now = now;
+    }
+
+    long getNow() {
+        return now;
+    }
+
+    int size() {
+        return count;
+    }
+
+    /**
+     * Put an id in the slot for its due tick, on the lowest level whose span reaches that far.
+     */
+    private void insert(int id) {
+        long delta = due[id] - now;
+        int level = 0;
+        while (level < LEVELS - 1 && delta >= 1L << ((level + 1) * SLOT_BITS)) {
+            level++;
+        }
+        // Anything further off than the top level reaches waits in its furthest slot, and is re-inserted from there
+        long tick = Math.min(due[id], now + (1L << (LEVELS * SLOT_BITS)) - 1);
+        int slot = level * SLOTS + (int) ((tick >>> (level * SLOT_BITS)) & (SLOTS - 1));
+        slotOf[id] = slot;
+        prev[id] = NONE;
+        next[id] = heads[slot];
+        if (heads[slot] != NONE) {
+            prev[heads[slot]] = id;
+        }
+        heads[slot] = id;
+    }
+
+    private void unlink(int id) {
+        int slot = slotOf[id];
+        if (prev[id] == NONE) {
+            heads[slot] = next[id];
+        } else {
+            next[prev[id]] = next[id];
+        }
+        if (next[id] != NONE) {
+            prev[next[id]] = prev[id];
+        }
+        slotOf[id] = NONE;
+    }
+
+    /**
+     * Move every id in a slot of a higher level down to where it belongs now.
+     */
+    private void cascade(int slot) {
+        int id = heads[slot];
+        heads[slot] = NONE;
+        while (id != NONE) {
+            int following = next[id];
+            insert(id);
+            id = following;
+        }
+    }
+}
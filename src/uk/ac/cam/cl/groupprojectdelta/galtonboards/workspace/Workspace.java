@@ -1,9 +1,9 @@
 package uk.ac.cam.cl.groupprojectdelta.galtonboards.workspace;
 
-import java.util.List;
 import org.joml.Vector2f;
 import org.liquidengine.legui.event.MouseClickEvent;
 import uk.ac.cam.cl.groupprojectdelta.galtonboards.graphics.Drawable;
+import uk.ac.cam.cl.groupprojectdelta.galtonboards.graphics.MeshBuffer;
 import uk.ac.cam.cl.groupprojectdelta.galtonboards.workspace.mouse.ClickableMap;
 import uk.ac.cam.cl.groupprojectdelta.galtonboards.workspace.mouse.Cursor;
 import uk.ac.cam.cl.groupprojectdelta.galtonboards.workspace.mouse.WorkspaceClickable;
@@ -56,29 +56,27 @@ public class Workspace implements Drawable {
   }
 
   @Override
-  public List<Float> getMesh(float time) {
-    List<Float> mesh = configuration.getMesh(time);
-    mesh.addAll(simulation.getMesh(time));
-    mesh.addAll(cursor.getMesh(time));
-    mesh.addAll(mouseHandler.getMesh(time));
-    return mesh;
+  public int getVertexCount() {
+    return configuration.getVertexCount()
+        + cursor.getVertexCount()
+        + mouseHandler.getVertexCount();
   }
 
   @Override
-  public List<Float> getUV() {
-    List<Float> uv = configuration.getUV();
-    uv.addAll(simulation.getUV());
-    uv.addAll(cursor.getUV());
-    uv.addAll(mouseHandler.getUV());
-    return uv;
+  public void writeMesh(float time, MeshBuffer buffer) {
+    configuration.writeMesh(time, buffer);
+    writeOverlayMesh(time, buffer);
   }
 
-  @Override
-  public List<Float> getColourTemplate() {
-    List<Float> ct = configuration.getColourTemplate();
-    ct.addAll(simulation.getColourTemplate());
-    ct.addAll(cursor.getColourTemplate());
-    ct.addAll(mouseHandler.getColourTemplate());
-    return ct;
+  /**
+   * Write what is drawn on top of the boards and balls (the cursor and whatever the mouse is doing).
+   * The balls themselves aren't part of the workspace's mesh, see Simulation.writeBallInstances().
+   *
+   * @param time   The current time.
+   * @param buffer The buffer to write into.
+   */
+  public void writeOverlayMesh(float time, MeshBuffer buffer) {
+    cursor.writeMesh(time, buffer);
+    mouseHandler.writeMesh(time, buffer);
   }
 }
@@ -0,0 +1,95 @@
+package uk.ac.cam.cl.groupprojectdelta.galtonboards.workspace.board;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Walker's alias table (built with Vose's method) for sampling from a fixed discrete distribution
+ * in O(1) time: one uniform random number picks a slot, and the fractional part of it picks
+ * between the slot's own outcome and its alias.
+ */
+public final class AliasTable {
+
+    // The probability of keeping slot i rather than taking its alias
+    private final double[] keep;
+    private final int[] alias;
+
+    /**
+     * Build an alias table from a list of weights (they don't need to sum to 1).
+     * @param weights : double[] - The relative weight of each outcome, must be non-negative.
+     */
+    public AliasTable(double[] weights) {
+        int n = weights.length;
+        keep = new double[n];
+        alias = new int[n];
+        double total = 0;
+        for (double w : weights) {
+            total += w;
+        }
+        if (n == 0 || total <= 0) {
+            System.err.println("Can't build an alias table with no weight, every sample will be outcome 0.");
+            for (int i = 0; i < n; i++) {
+                keep[i] = 1;
+            }
+            return;
+        }
+
+        // Scale so the average slot holds exactly 1, then pair up under-full slots with over-full ones
+        double[] scaled = new double[n];
+        Deque<Integer> small = new ArrayDeque<>();
+        Deque<Integer> large = new ArrayDeque<>();
+        for (int i = 0; i < n; i++) {
+            scaled[i] = weights[i] * n / total;
+            if (scaled[i] < 1) {
+                small.push(i);
+            } else {
+                large.push(i);
+            }
+        }
+        while (!small.isEmpty() && !large.isEmpty()) {
+            int s = small.pop();
+            int l = large.pop();
+            keep[s] = scaled[s];
+            alias[s] = l;
+            scaled[l] = (scaled[l] + scaled[s]) - 1;
+            if (scaled[l] < 1) {
+                small.push(l);
+            } else {
+                large.push(l);
+            }
+        }
+        // Whatever is left over is full up to rounding error
+        while (!large.isEmpty()) {
+            int l = large.pop();
+            keep[l] = 1;
+            alias[l] = l;
+        }
+        while (!small.isEmpty()) {
+            int s = small.pop();
+            keep[s] = 1;
+            alias[s] = s;
+        }
+    }
+
+    /**
+     * Draw an outcome.
+     * @param u : double - A uniform random number in [0, 1).
+     * @return The index of the outcome, chosen with probability proportional to its weight.
+     */
+    public int sample(double u) {
+        double scaled = u * keep.length;
+        int i = (int) scaled;
+        if (i >= keep.length) { // only possible through rounding
+            i = keep.length - 1;
+        }
+        return scaled - i < keep[i] ? i : alias[i];
+    }
+
+    /**
+     * Getter for the number of outcomes.
+     * @return The number of outcomes in the table.
+     */
+    public int size() {
+        return keep.length;
+    }
+}
@@ -1,8 +1,6 @@
 package uk.ac.cam.cl.groupprojectdelta.galtonboards.workspace.board;
 
 import org.joml.Vector2f;
-import uk.ac.cam.cl.groupprojectdelta.galtonboards.workspace.Simulation;
-import uk.ac.cam.cl.groupprojectdelta.galtonboards.workspace.Workspace;
 
 import java.util.List;
 
@@ -44,9 +42,9 @@ public class BinomialBoard extends Board {
      * Reset all of the peg values so that they follow the binomial distribution.
      */
     private void fixAllPegs() {
-        for (Peg peg : getPegs()) {
-            peg.setProbability(1-probPerTrial);
-        }
+        // Every peg shares the probability, so the grid doesn't need one per peg
+        getPegGrid().fill(1-probPerTrial);
+        invalidateCompiled();
     }
 
     /**
@@ -93,50 +91,28 @@ public class BinomialBoard extends Board {
      */
     public void setNumTrials(int n) {
         if (n >= 0) {
-            int rowDifference = n-numTrials;
-            if (rowDifference > 0) {
-                // Keep adding rows until numTrials = n
-                for (int i = 0; i < rowDifference; i++) {
-                    addRow();
-                }
-            }
-            else if (rowDifference < 0) {
-                // Keep removing rows until numTrials = n
-                for (int i = 0; i < -rowDifference; i++) {
-                    removeRow();
-                }
-            }
+            resize(n);
         }
         else { System.err.println(n + " is not a valid number of trials for the Binomial distribution."); }
     }
 
     /**
-     * Add a new row of pegs when editing the board. This method should be called from the UI "plus" button.
+     * Change the number of rows of pegs (and so the number of trials) in one go.
+     * @param newIsoGridWidth : int - How many pegs the bottom row should have.
      */
     @Override
-    public void addRow() {
-        if (Workspace.workspace.getSimulation().getSimulationState() == Simulation.SimulationState.Stopped) {
-            super.addRow();
-            numTrials++;
+    public void resize(int newIsoGridWidth) {
+        int oldIsoGridWidth = getIsoGridWidth();
+        super.resize(newIsoGridWidth);
+        numTrials = getIsoGridWidth();
+        if (numTrials > oldIsoGridWidth) {
             // Correct the probability values of the new pegs
-            List<Peg> pegs = getPegs();
-            for (int i = pegs.size() - getIsoGridWidth(); i < pegs.size(); i++) {
-                pegs.get(i).setProbability(1 - probPerTrial);
+            fixAllPegs();
+            // Add tags to the new buckets
+            List<Bucket> buckets = getBuckets();
+            for (int i = buckets.size() - (numTrials - oldIsoGridWidth); i < buckets.size(); i++) {
+                buckets.get(i).setTag("n=" + buckets.get(i).getStartColumn());
             }
-            // Add tag to the new bucket
-            Bucket newB = getBucket(getIsoGridWidth());
-            newB.setTag("n=" + numTrials);
-        }
-    }
-
-    /**
-     * Remove a row of pegs when editing the board. This method should be called from the UI "minus" button.
-     */
-    @Override
-    public void removeRow() {
-        if (Workspace.workspace.getSimulation().getSimulationState() == Simulation.SimulationState.Stopped) {
-            super.removeRow();
-            numTrials--;
         }
     }
 
@@ -209,6 +185,26 @@ public class BinomialBoard extends Board {
     @Override
     public Distribution getDistribution() {return Distribution.Binomial;}
 
+    /**
+     * Get an exact binomial sampler, as long as no peg has been edited since fixAllPegs().
+     * @return The sampler, or null if a peg has been edited.
+     */
+    @Override
+    public DistributionSampler getSampler() {
+        // Read the peg grid directly, this is called on every recompile and the board may have millions of pegs
+        PegGrid grid = getPegGrid();
+        if (grid.hasGivenTags()) {
+            return null;
+        }
+        int checked = grid.isUniform() ? Math.min(grid.size(), 1) : grid.size();
+        for (int i = 0; i < checked; i++) {
+            if (grid.getProbability(i) != 1 - probPerTrial) {
+                return null;
+            }
+        }
+        return new BinomialSampler(getIsoGridWidth(), probPerTrial);
+    }
+
     @Override
     public String toString() {
         return "Binomial board of width " + super.isoGridWidth;
@@ -0,0 +1,219 @@
+package uk.ac.cam.cl.groupprojectdelta.galtonboards.workspace.board;
+
+import uk.ac.cam.cl.groupprojectdelta.galtonboards.workspace.RandomSource;
+
+/**
+ * B(n, p): column c holds the balls with c successes out of n trials.
+ * When n * min(p, 1 - p) is small the CDF is inverted from zero, which takes O(np) steps on average.
+ * Otherwise it uses BTPE (Kachitvichyanukul and Schmeiser's triangle, parallelogram and exponential tails
+ * acceptance/rejection method), which takes O(1) expected time however many trials there are.
+ */
+public final class BinomialSampler implements DistributionSampler {
+    // Below this mean (of the rarer side) inversion is quicker than setting up BTPE
+    private static final double INVERSION_LIMIT = 30;
+
+    private final int trials;
+    private final double probPerTrial;
+    private final double r; // min(p, 1 - p), the other side is sampled by flipping the result
+    private final double q;
+    private double[] pmf; // built the first time pmf() is called
+
+    // Inversion set up
+    private final double qn;
+    private final double bound;
+
+    // BTPE set up, see the paper for what each of these is
+    private final int m;
+    private final double p1, xm, xl, xr, c, laml, lamr, p2, p3, p4, nrq;
+
+    /**
+     * Create a sampler for a binomial distribution.
+     * @param trials : int - How many trials are taken (n).
+     * @param probPerTrial : double - The probability of a trial succeeding (p).
+     */
+    public BinomialSampler(int trials, double probPerTrial) {
+        this.trials = Math.max(0, trials);
+        this.probPerTrial = Math.min(1, Math.max(0, probPerTrial));
+        int n = this.trials;
+        r = Math.min(this.probPerTrial, 1 - this.probPerTrial);
+        q = 1 - r;
+        nrq = n * r * q;
+
+        qn = Math.exp(n * Math.log(q));
+        bound = Math.min(n, n * r + 10 * Math.sqrt(nrq + 1));
+
+        double fm = n * r + r;
+        m = (int) Math.floor(fm);
+        p1 = Math.floor(2.195 * Math.sqrt(nrq) - 4.6 * q) + 0.5;
+        xm = m + 0.5;
+        xl = xm - p1;
+        xr = xm + p1;
+        c = 0.134 + 20.5 / (15.3 + m);
+        double a = (fm - xl) / (fm - xl * r);
+        laml = a * (1 + a / 2);
+        a = (xr - fm) / (xr * q);
+        lamr = a * (1 + a / 2);
+        p2 = p1 * (1 + 2 * c);
+        p3 = p2 + c / laml;
+        p4 = p3 + c / lamr;
+    }
+
+    @Override
+    public int sample(RandomSource random) {
+        if (r == 0) {
+            return probPerTrial == 0 ? 0 : trials;
+        }
+        int successes = trials * r < INVERSION_LIMIT ? sampleInversion(random) : sampleBtpe(random);
+        // Samples are drawn for the rarer side
+        return probPerTrial > 0.5 ? trials - successes : successes;
+    }
+
+    private int sampleInversion(RandomSource random) {
+        int x = 0;
+        double px = qn;
+        double u = random.nextDouble();
+        while (u > px) {
+            x++;
+            if (x > bound) { // rounding has carried u off the end, start again
+                x = 0;
+                px = qn;
+                u = random.nextDouble();
+            } else {
+                u -= px;
+                px = ((trials - x + 1) * r * px) / (x * q);
+            }
+        }
+        return x;
+    }
+
+    private int sampleBtpe(RandomSource random) {
+        int n = trials;
+        while (true) {
+            double u = random.nextDouble() * p4;
+            double v = random.nextDouble();
+            int y;
+            if (u <= p1) {
+                // Triangular region, always accepted
+                return (int) Math.floor(xm - p1 * v + u);
+            } else if (u <= p2) {
+                // Parallelograms
+                double x = xl + (u - p1) / c;
+                v = v * c + 1 - Math.abs(m - x + 0.5) / p1;
+                if (v > 1) {
+                    continue;
+                }
+                y = (int) Math.floor(x);
+            } else if (u <= p3) {
+                // Left exponential tail
+                y = (int) Math.floor(xl + Math.log(v) / laml);
+                if (y < 0 || v == 0) {
+                    continue;
+                }
+                v = v * (u - p2) * laml;
+            } else {
+                // Right exponential tail
+                y = (int) Math.floor(xr - Math.log(v) / lamr);
+                if (y > n || v == 0) {
+                    continue;
+                }
+                v = v * (u - p3) * lamr;
+            }
+
+            int k = Math.abs(y - m);
+            if (k <= 20 || k >= nrq / 2 - 1) {
+                // Explicit evaluation of f(y) / f(m)
+                double s = r / q;
+                double a = s * (n + 1);
+                double f = 1;
+                if (m < y) {
+                    for (int i = m + 1; i <= y; i++) {
+                        f *= a / i - s;
+                    }
+                } else if (m > y) {
+                    for (int i = y + 1; i <= m; i++) {
+                        f /= a / i - s;
+                    }
+                }
+                if (v <= f) {
+                    return y;
+                }
+                continue;
+            }
+
+            // Squeeze with bounds on log(f(y) / f(m)), then compare against Stirling's approximation
+            double rho = (k / nrq) * ((k * (k / 3.0 + 0.625) + 0.16666666666666666) / nrq + 0.5);
+            double t = -k * (double) k / (2 * nrq);
+            double logV = Math.log(v);
+            if (logV < t - rho) {
+                return y;
+            }
+            if (logV > t + rho) {
+                continue;
+            }
+            double x1 = y + 1;
+            double f1 = m + 1;
+            double z = n + 1 - m;
+            double w = n - y + 1;
+            double limit = xm * Math.log(f1 / x1) + (n - m + 0.5) * Math.log(z / w)
+                    + (y - m) * Math.log(w * r / (x1 * q))
+                    + stirlingCorrection(f1) + stirlingCorrection(z) + stirlingCorrection(x1) + stirlingCorrection(w);
+            if (logV <= limit) {
+                return y;
+            }
+        }
+    }
+
+    private static double stirlingCorrection(double x) {
+        double x2 = x * x;
+        return (13680. - (462. - (132. - (99. - 140. / x2) / x2) / x2) / x2) / x / 166320.;
+    }
+
+    @Override
+    public double pmf(int column) {
+        if (column < 0 || column > trials) {
+            return 0;
+        }
+        if (pmf == null) {
+            double[] weights = weights(trials, probPerTrial);
+            double total = 0;
+            for (double weight : weights) {
+                total += weight;
+            }
+            for (int k = 0; k <= trials; k++) {
+                weights[k] /= total;
+            }
+            pmf = weights;
+        }
+        return pmf[column];
+    }
+
+    @Override
+    public int getColumnCount() {
+        return trials + 1;
+    }
+
+    /**
+     * Work out the relative probability of each number of successes in n trials, each succeeding with probability
+     * p. The weights are built outwards from the most likely count, so large n underflows in the tails only.
+     * @param n : int - The number of trials.
+     * @param p : double - The probability of a trial succeeding.
+     * @return The weights, indexed by the number of successes (they don't sum to 1).
+     */
+    static double[] weights(int n, double p) {
+        double[] weights = new double[n + 1];
+        if (p <= 0 || p >= 1) {
+            weights[p <= 0 ? 0 : n] = 1;
+            return weights;
+        }
+        int mode = Math.min(n, (int) Math.floor((n + 1) * p));
+        double odds = p / (1 - p);
+        weights[mode] = 1;
+        for (int k = mode; k < n; k++) {
+            weights[k + 1] = weights[k] * (n - k) / (k + 1) * odds;
+        }
+        for (int k = mode; k > 0; k--) {
+            weights[k - 1] = weights[k] * k / (n - k + 1) / odds;
+        }
+        return weights;
+    }
+}
@@ -2,7 +2,6 @@ package uk.ac.cam.cl.groupprojectdelta.galtonboards.workspace.board;
 
 import com.google.common.collect.Iterables;
 import org.joml.Vector2f;
-import uk.ac.cam.cl.groupprojectdelta.galtonboards.workspace.Ball;
 import uk.ac.cam.cl.groupprojectdelta.galtonboards.workspace.Configuration;
 import uk.ac.cam.cl.groupprojectdelta.galtonboards.workspace.Simulation;
 import uk.ac.cam.cl.groupprojectdelta.galtonboards.workspace.Workspace;
@@ -16,13 +15,17 @@ import uk.ac.cam.cl.groupprojectdelta.galtonboards.workspace.mouse.WorkspaceDrag
 import uk.ac.cam.cl.groupprojectdelta.galtonboards.workspace.mouse.WorkspaceMouseHandler;
 import uk.ac.cam.cl.groupprojectdelta.galtonboards.workspace.mouse.WorkspaceSelectable;
 import uk.ac.cam.cl.groupprojectdelta.galtonboards.graphics.Drawable;
+import uk.ac.cam.cl.groupprojectdelta.galtonboards.graphics.MeshBuffer;
+import uk.ac.cam.cl.groupprojectdelta.galtonboards.graphics.RetainedDrawable;
 
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Objects;
 import java.util.stream.Collectors;
 
-public class Board implements Drawable, WorkspaceSelectable, WorkspaceDraggable, ClickableMap {
+public class Board implements Drawable, RetainedDrawable, WorkspaceSelectable, WorkspaceDraggable, ClickableMap {
 
     public static final float unitDistance = 1f;
     static float bucketDepth = 5f;
@@ -35,7 +38,7 @@ public class Board implements Drawable, WorkspaceSelectable, WorkspaceDraggable,
 
     // How many pegs are on the bottom row of this board's isometric grid (converts to a triangular number)
     protected int isoGridWidth;
-    private List<Peg> pegs;
+    private PegGrid pegGrid;
 
     // Explicit bucket instances that collect from the grid's implicit output columns
     private List<Bucket> buckets;
@@ -49,6 +52,9 @@ public class Board implements Drawable, WorkspaceSelectable, WorkspaceDraggable,
     private List<Bucket> oldBuckets;
     private List<Bucket> inputs;
 
+    // Flattened routing table for this board, null until needed and whenever the board has been edited
+    private CompiledBoard compiled;
+
 
     // UI elements for this board
     private final AddRowButton addRowButton = new AddRowButton(this);
@@ -56,6 +62,10 @@ public class Board implements Drawable, WorkspaceSelectable, WorkspaceDraggable,
     private final OutsideBoardRegion outsideBoardRegion = new OutsideBoardRegion(this);
 
     private boolean selected = false;
+
+    // Changed whenever the board's background or pegs change, so the renderer knows to upload them again
+    private int meshVersion = 0;
+    private int drawnHighlight = 0;
      /*
     =====================================================================
                              CONSTRUCTORS
@@ -113,11 +123,9 @@ public class Board implements Drawable, WorkspaceSelectable, WorkspaceDraggable,
      * @param probability : float - The initial probability for all pegs on this board.
      */
     private void generatePegs(float probability) {
-        this.pegs = new ArrayList<>();
+        invalidateCompiled();
         int pegAmount = (isoGridWidth * (isoGridWidth+1)) / 2;
-        for (int i = 0; i < pegAmount; i++) {
-            pegs.add(new Peg(probability, i, this));
-        }
+        this.pegGrid = new PegGrid(pegAmount, probability);
     }
 
     /**
@@ -126,6 +134,7 @@ public class Board implements Drawable, WorkspaceSelectable, WorkspaceDraggable,
      * @param bucketWidths : int[] - Array of integers defining the width of each bucket.
      */
     public void generateBuckets(int[] bucketWidths) {
+        invalidateCompiled();
         this.buckets = new ArrayList<>();
         this.bucketWidths = new ArrayList<>();
         this.columns = new ArrayList<>();
@@ -180,38 +189,18 @@ public class Board implements Drawable, WorkspaceSelectable, WorkspaceDraggable,
         Vector2f diff = new Vector2f(newWorldPos);
         diff.sub(worldPos);
         if (Workspace.workspace != null) {
-            for (Ball ball : Workspace.workspace.getConfiguration().getSimulation().getBalls()) {
-                if (ball.getLogLoc().getBoard() == this) {
-                    if (ball.getNextLogLoc().getBoard() == this) {
-                        ball.getPosition().add(diff);
-                    } else {
-                        Vector2f move = new Vector2f(diff);
-                        move.mul(1 - ball.getTravelledProportion());
-                        ball.getPosition().add(move);
-                    }
-                } else if (ball.getNextLogLoc().getBoard() == this) {
-                    Vector2f move = new Vector2f(diff);
-                    move.mul(ball.getTravelledProportion());
-                    ball.getPosition().add(move);
-                }
-            }
+            Workspace.workspace.getConfiguration().getSimulation().getBalls().boardMoved(this, diff.x, diff.y);
         }
         this.worldPos = new Vector2f(newWorldPos);
-        setPegPositions();
+        meshVersion++;
+        if (compiled != null) {
+            compiled.setOrigin(worldPos);
+        }
         setBucketOutputPositions();
         setColumnPositions();
         setColumnBoundaries();
     }
 
-    /**
-     * Recalculate the world position of the pegs whenever the board position is moved.
-     */
-    void setPegPositions() {
-        for(Peg p : pegs) {
-            p.setPosition();
-        }
-    }
-
     /**
      * Recalculate the world position of the bucket outputs whenever the board position is moved.
      */
@@ -243,7 +232,7 @@ public class Board implements Drawable, WorkspaceSelectable, WorkspaceDraggable,
     }
 
     /**
-     * Helper method for addRow() and removeRow() for repositioning the board after a dimension change.
+     * Helper method for resize() for repositioning the board after a dimension change.
      * @param oldDimensions : Vector2f - The old board dimensions.
      */
     private void updateYPos(Vector2f oldDimensions) {
@@ -253,6 +242,15 @@ public class Board implements Drawable, WorkspaceSelectable, WorkspaceDraggable,
         updateBoardPosition(new Vector2f(worldPos.x, newYPos));
     }
 
+    /**
+     * Throw away the compiled routing table so that it is rebuilt from the current layout the next time it is needed.
+     * Called whenever pegs, columns, buckets or bucket outputs of this board are edited.
+     */
+    void invalidateCompiled() {
+        compiled = null;
+        meshVersion++;
+    }
+
     public void setSimulation(Simulation sim) {
         simulation = sim;
     }
@@ -266,7 +264,7 @@ public class Board implements Drawable, WorkspaceSelectable, WorkspaceDraggable,
     public void toAbsoluteScale() {
         for (Bucket bucket : buckets) {
             bucket.relativeScale = false;
-            while (bucket.balls().size() > bucket.getSize()) {
+            while (bucket.getLiquidBallCount() > bucket.getSize()) {
                 /*
                 If a bucket is in relative scale, adding balls to it doesn't scale it up even if bucket size exceeded.
                 So if converting back to absolute scale, need to do this:
@@ -286,83 +284,74 @@ public class Board implements Drawable, WorkspaceSelectable, WorkspaceDraggable,
      * Add a new row of pegs when editing the board. This method should be called from the UI "plus" button.
      */
     public void addRow() {
-        if (Workspace.workspace.getSimulation().getSimulationState() == Simulation.SimulationState.Stopped) {
-            Vector2f oldDimensions = new Vector2f(dimensions);
-            this.isoGridWidth++;
-
-            // Add the new row of pegs
-            int newNumberOfPegs = pegs.size() + isoGridWidth;
-            for (int i = pegs.size(); i < newNumberOfPegs; i++) {
-                pegs.add(new Peg(0.5f, i, this));
-            }
-
-            // Add a new unit bucket
-            bucketWidths.add(1);
-            buckets.add(new Bucket(1, isoGridWidth, this));
-
-            ColumnBottom cb = new ColumnBottom(isoGridWidth, buckets.get(buckets.size() - 1), this);
-            ColumnTop ct = new ColumnTop(isoGridWidth, buckets.get(buckets.size() - 1), this, cb);
-            columns.add(ct);
-
-            // Update the bucket and column positions
-            for (Bucket b : buckets) {
-                b.setOutputPosition();
-            }
-            for (Column c : columns) {
-                c.setPosition();
-            }
-
-            // Update the boards position so that the ball input point remains constant
-            updateYPos(oldDimensions);
-        }
+        resize(isoGridWidth + 1);
     }
 
     /**
      * Remove a row of pegs when editing the board. This method should be called from the UI "minus" button.
      */
     public void removeRow() {
-        if (Workspace.workspace.getSimulation().getSimulationState() == Simulation.SimulationState.Stopped) {
-            // Only attempt to remove row if there is actually a row to remove
-            if (isoGridWidth < 2) {
-                System.err.println("Can't remove last row.");
-                return;
-            }
-
-            Vector2f oldDimensions = new Vector2f(dimensions);
-            this.isoGridWidth--;
-
-            // Remove the bottom row of pegs
-            for (int i = 0; i < isoGridWidth + 1; i++) {
-                pegs.remove(pegs.size() - 1);
-            }
-
-            // If the rightmost bucket has a width > 1, reduce its size, else delete it
-            int oldWidth = bucketWidths.get(bucketWidths.size() - 1);
-            if (oldWidth > 1) {
-                // Reduce the width of the last bucket by 1
-                int newWidth = oldWidth - 1;
-                bucketWidths.set(bucketWidths.size() - 1, newWidth);
-                buckets.get(buckets.size() - 1).setWidth(newWidth);
-            } else {
-                // Delete the last bucket
-                bucketWidths.remove(bucketWidths.size() - 1);
-                buckets.get(buckets.size() - 1).destroy();
-                buckets.remove(buckets.size() - 1);
-            }
+        resize(isoGridWidth - 1);
+    }
 
-            columns.remove(columns.size() - 1);
+    /**
+     * Change the number of rows of pegs in one go, rather than a row at a time, so that the pegs, buckets and
+     * columns are only rebuilt (and the board repositioned) once. Rows are added and removed at the bottom:
+     * new columns get unit width buckets, and removing columns narrows or deletes the rightmost buckets,
+     * so the buckets that are kept keep their widths and tags.
+     * @param newIsoGridWidth : int - How many pegs the bottom row should have.
+     */
+    public void resize(int newIsoGridWidth) {
+        if (Workspace.workspace.getSimulation().getSimulationState() != Simulation.SimulationState.Stopped) {
+            return;
+        }
+        // Only attempt to remove rows if there are actually rows to remove
+        if (newIsoGridWidth < 1) {
+            System.err.println("Can't remove last row.");
+            newIsoGridWidth = Math.min(isoGridWidth, 1);
+        }
+        if (newIsoGridWidth == isoGridWidth) {
+            return;
+        }
 
-            // Update the bucket and column positions
-            for (Bucket b : buckets) {
-                b.setOutputPosition();
+        invalidateCompiled();
+        Vector2f oldDimensions = new Vector2f(dimensions);
+        int oldIsoGridWidth = isoGridWidth;
+        this.isoGridWidth = newIsoGridWidth;
+        pegGrid.resize((isoGridWidth * (isoGridWidth + 1)) / 2, pegGrid.getDefaultProbability());
+
+        if (isoGridWidth > oldIsoGridWidth) {
+            // Add a new unit bucket and column for every new output column
+            for (int i = oldIsoGridWidth + 1; i <= isoGridWidth; i++) {
+                Bucket bucket = new Bucket(1, i, this);
+                bucketWidths.add(1);
+                buckets.add(bucket);
+                ColumnBottom cb = new ColumnBottom(i, bucket, this);
+                columns.add(new ColumnTop(i, bucket, this, cb));
             }
-            for (Column c : columns) {
-                c.setPosition();
+        } else {
+            // Narrow the rightmost buckets, deleting the ones that no longer cover any columns
+            int excess = oldIsoGridWidth - isoGridWidth;
+            while (excess > 0) {
+                int last = buckets.size() - 1;
+                int oldWidth = bucketWidths.get(last);
+                if (oldWidth > excess) {
+                    bucketWidths.set(last, oldWidth - excess);
+                    buckets.get(last).setWidth(oldWidth - excess);
+                    excess = 0;
+                } else {
+                    bucketWidths.remove(last);
+                    buckets.get(last).destroy();
+                    buckets.remove(last);
+                    excess -= oldWidth;
+                }
             }
-
-            // Update the boards position so that the ball input point remains constant
-            updateYPos(oldDimensions);
+            columns.subList(isoGridWidth + 1, columns.size()).clear();
         }
+
+        // Update the boards position so that the ball input point remains constant (this also moves the buckets
+        // and columns)
+        updateYPos(oldDimensions);
     }
 
     /**
@@ -404,6 +393,7 @@ public class Board implements Drawable, WorkspaceSelectable, WorkspaceDraggable,
             updatingBucketLayout = false;
             beingEdited = null;
             buckets = new ArrayList<>(oldBuckets);
+            invalidateCompiled();
         }
     }
 
@@ -484,6 +474,7 @@ public class Board implements Drawable, WorkspaceSelectable, WorkspaceDraggable,
      */
     public Vector2f edgeExtendedLeft(boolean leftEdge) {
         if(updatingBucketLayout && buckets.indexOf(beingEdited) > 0) {
+            invalidateCompiled();
             if (leftEdge) {
                 // if left edge has been stretched left, increase bucket width, decrement startColumn, and reduce bucket to the left
                 beingEdited.setWidth(beingEdited.getWidth() + 1);
@@ -529,6 +520,7 @@ public class Board implements Drawable, WorkspaceSelectable, WorkspaceDraggable,
      */
     public Vector2f edgeExtendedRight(boolean leftEdge) {
         if(updatingBucketLayout && buckets.indexOf(beingEdited) < buckets.size() - 1) {
+            invalidateCompiled();
             if (leftEdge) {
                 // if left edge has been stretched right, decrease bucket width, increment startColumn, and spawn new unit bucket to the left
                 beingEdited.setWidth(beingEdited.getWidth() - 1);
@@ -675,7 +667,7 @@ public class Board implements Drawable, WorkspaceSelectable, WorkspaceDraggable,
      * @return The root peg instance for this board.
      */
     public Peg getRootPeg() {
-        return pegs.get(0);
+        return getPeg(0);
     }
 
     /**
@@ -684,7 +676,19 @@ public class Board implements Drawable, WorkspaceSelectable, WorkspaceDraggable,
      * @return The peg at index x.
      */
     public Peg getPeg(int x) {
-        return pegs.get(x);
+        Objects.checkIndex(x, pegGrid.size());
+        return new Peg(this, x);
+    }
+
+    /**
+     * Get the flattened routing table for this board, compiling it if the board has been edited since it was last built.
+     * @return The compiled board.
+     */
+    public CompiledBoard getCompiled() {
+        if (compiled == null) {
+            compiled = new CompiledBoard(this);
+        }
+        return compiled;
     }
 
     /**
@@ -761,11 +765,47 @@ public class Board implements Drawable, WorkspaceSelectable, WorkspaceDraggable,
     }
 
     /**
-     * Getter for the pegs list.
+     * Getter for the pegs list. The list is a read-only view, its pegs are created as they're asked for.
      * @return The list of pegs on this board.
      */
     public List<Peg> getPegs() {
-        return pegs;
+        return new AbstractList<>() {
+            @Override
+            public Peg get(int index) {
+                return getPeg(index);
+            }
+
+            @Override
+            public int size() {
+                return pegGrid.size();
+            }
+        };
+    }
+
+    /**
+     * Getter for the storage behind this board's pegs.
+     * @return The peg grid.
+     */
+    PegGrid getPegGrid() {
+        return pegGrid;
+    }
+
+    /**
+     * Get the column a ball falls into when it falls left of a peg on the bottom row.
+     * @param rowIndex : int - How far along the bottom row the peg is.
+     * @return The index of the column.
+     */
+    int leftColumnOf(int rowIndex) {
+        return rowIndex;
+    }
+
+    /**
+     * Get the column a ball falls into when it falls right of a peg on the bottom row.
+     * @param rowIndex : int - How far along the bottom row the peg is.
+     * @return The index of the column.
+     */
+    int rightColumnOf(int rowIndex) {
+        return rowIndex + 1;
     }
 
     /**
@@ -812,6 +852,16 @@ public class Board implements Drawable, WorkspaceSelectable, WorkspaceDraggable,
 
     public Distribution getDistribution() {return Distribution.Custom;}
 
+    /**
+     * Get an exact sampler for the distribution the board's pegs encode, so balls that aren't being animated
+     * can skip the pegs. Only distribution boards have one, and only while their pegs are as they set them up.
+     * Called when the board is compiled, so editing a peg takes effect straight away.
+     * @return The sampler, or null if balls have to follow the pegs.
+     */
+    public DistributionSampler getSampler() {
+        return null;
+    }
+
     /*
     =====================================================================
                                  GRAPHICS
@@ -819,151 +869,106 @@ public class Board implements Drawable, WorkspaceSelectable, WorkspaceDraggable,
      */
 
     @Override
-    public List<Float> getMesh(float time) {
-        List<Float> points = new ArrayList<>();
-        Vector2f lowBound = new Vector2f();
-        Vector2f highBound = new Vector2f();
-        Vector2f halfDimensions = new Vector2f();
-        getDimensions().mul(0.5f, halfDimensions);
-
-
-        worldPos.add(halfDimensions, highBound);
-        worldPos.sub(halfDimensions, lowBound);
+    public int getRetainedVertexCount() {
+        return 4 + 4 * pegGrid.size();
+    }
 
+    /**
+     * Write the parts of the board that only change when it is edited or moved: the background and the pegs.
+     * @param buffer : MeshBuffer - The buffer to write into.
+     */
+    @Override
+    public void writeRetainedMesh(MeshBuffer buffer) {
+        final float top = 0f;
+        final float bottom = 0.5f;
+        final float left = 0.5f;
+        final float right = 1f;
 
-        //  +----+
-        //  |1 / |
-        //  | / 2|
-        //  +----+
+        float red = 1f;
+        float green = 1f;
+        float blue = 1f;
+        if (drawnHighlight == 2) {
+            red = green = 0.5f;
+        } else if (drawnHighlight == 1) {
+            red = green = blue = 0.8f;
+        }
 
         float zEpsilon = z + 1E-2f;
-
-        points = new ArrayList<>(Arrays.asList(
-                // Face 1
-                lowBound.x, lowBound.y, zEpsilon,
-                highBound.x, lowBound.y, zEpsilon,
-                highBound.x, highBound.y, zEpsilon,
-
-                // Face 2
-                lowBound.x, lowBound.y, zEpsilon,
-                lowBound.x, highBound.y, zEpsilon,
-                highBound.x, highBound.y, zEpsilon
-        ));
-
-        for (Peg peg : pegs) {
-            points.addAll(peg.getMesh(time));
+        float halfWidth = dimensions.x / 2f;
+        float halfHeight = dimensions.y / 2f;
+        buffer.quad(worldPos.x - halfWidth, worldPos.y - halfHeight, worldPos.x + halfWidth, worldPos.y + halfHeight,
+                zEpsilon, top, bottom, left, right, red, green, blue);
+
+        // The pegs are drawn from the compiled geometry, so no Peg objects are made
+        CompiledBoard compiled = getCompiled();
+        for (int i = 0; i < compiled.getPegCount(); i++) {
+            Peg.writeMesh(buffer, compiled.getPegX(i), compiled.getPegY(i), compiled.leftProb(i));
         }
+    }
 
-        for (Bucket bucket : buckets) {
-            points.addAll(bucket.getMesh(time));
+    @Override
+    public int getRetainedMeshVersion() {
+        // Hovering over or selecting the board changes the colour of its background
+        int highlight = getHighlight();
+        if (highlight != drawnHighlight) {
+            drawnHighlight = highlight;
+            meshVersion++;
         }
+        return meshVersion;
+    }
 
-        if (Workspace.workspace.getClickableMap() == this) {
-            points.addAll(addRowButton.getMesh(time));
-            if (isoGridWidth > 1) {
-                points.addAll(removeRowButton.getMesh(time));
-            }
-            for (PipeEditHandle handle : getPipeEditHandles()) {
-                points.addAll(handle.getMesh(time));
-            }
+    /**
+     * Work out how the board's background should be highlighted.
+     * @return 2 if the board is selected, 1 if the mouse is over it, otherwise 0.
+     */
+    private int getHighlight() {
+        if (Workspace.workspace.mouseHandler.getSelectionHandler().isSelected(this)) {
+            return 2;
+        } else if (Workspace.workspace.mouseHandler.getCurrentClickable() == this) {
+            return 1;
         }
-
-        return points;
+        return 0;
     }
 
     @Override
-    public List<Float> getUV() {
-        final float top = 0f;
-        final float bottom = 0.5f;
-        final float left = 0.5f;
-        final float right = 1f;
-
-        List<Float> UVs = new ArrayList<>(Arrays.asList(
-                // face 1
-                top, left,
-                bottom, left,
-                bottom, right,
-                // face 2
-                top, left,
-                top, right,
-                bottom, right
-        ));
-
-        for (Peg peg : pegs) {
-            UVs.addAll(peg.getUV());
-        }
-
+    public int getVertexCount() {
+        int count = 0;
         for (Bucket bucket : buckets) {
-            UVs.addAll(bucket.getUV());
+            count += bucket.getVertexCount();
         }
-
         if (Workspace.workspace.getClickableMap() == this) {
-            UVs.addAll(addRowButton.getUV());
+            count += addRowButton.getVertexCount();
             if (isoGridWidth > 1) {
-                UVs.addAll(removeRowButton.getUV());
+                count += removeRowButton.getVertexCount();
             }
-            for (PipeEditHandle handle : getPipeEditHandles()) {
-                UVs.addAll(handle.getUV());
+            for (Bucket bucket : buckets) {
+                count += bucket.getPipeEditHandle().getVertexCount();
             }
         }
-
-        return UVs;
+        return count;
     }
 
+    /**
+     * Write the parts of the board that can change from frame to frame: the buckets (which fill up as balls
+     * arrive) and the editing controls. The background and pegs are written by writeRetainedMesh().
+     * @param time : float - The current time.
+     * @param buffer : MeshBuffer - The buffer to write into.
+     */
     @Override
-    public List<Float> getColourTemplate() {
-        List<Float> ct;
-        if (Workspace.workspace.mouseHandler.getSelectionHandler().isSelected(this)) {
-             ct = new ArrayList<>(Arrays.asList(
-                    0.5f, 0.5f, 1f,
-                    0.5f, 0.5f, 1f,
-                    0.5f, 0.5f, 1f,
-
-                    0.5f, 0.5f, 1f,
-                    0.5f, 0.5f, 1f,
-                    0.5f, 0.5f, 1f
-            ));
-        } else if (Workspace.workspace.mouseHandler.getCurrentClickable() ==  this) {
-            ct = new ArrayList<>(Arrays.asList(
-                    0.8f, 0.8f, 0.8f,
-                    0.8f, 0.8f, 0.8f,
-                    0.8f, 0.8f, 0.8f,
-
-                    0.8f, 0.8f, 0.8f,
-                    0.8f, 0.8f, 0.8f,
-                    0.8f, 0.8f, 0.8f
-            ));
-        } else {
-            ct = new ArrayList<>(Arrays.asList(
-                    1f, 1f, 1f,
-                    1f, 1f, 1f,
-                    1f, 1f, 1f,
-
-                    1f, 1f, 1f,
-                    1f, 1f, 1f,
-                    1f, 1f, 1f
-            ));
-        }
-
-        for (Peg peg : pegs) {
-            ct.addAll(peg.getColourTemplate());
-        }
-
+    public void writeMesh(float time, MeshBuffer buffer) {
         for (Bucket bucket : buckets) {
-            ct.addAll(bucket.getColourTemplate());
+            bucket.writeMesh(time, buffer);
         }
 
         if (Workspace.workspace.getClickableMap() == this) {
-            ct.addAll(addRowButton.getColourTemplate());
+            addRowButton.writeMesh(time, buffer);
             if (isoGridWidth > 1) {
-                ct.addAll(removeRowButton.getColourTemplate());
+                removeRowButton.writeMesh(time, buffer);
             }
-            for (PipeEditHandle handle : getPipeEditHandles()) {
-                ct.addAll(handle.getColourTemplate());
+            for (Bucket bucket : buckets) {
+                bucket.getPipeEditHandle().writeMesh(time, buffer);
             }
         }
-
-        return ct;
     }
 
     /*
@@ -1024,7 +1029,7 @@ public class Board implements Drawable, WorkspaceSelectable, WorkspaceDraggable,
         return Iterables.concat(
                 List.of(addRowButton, removeRowButton, outsideBoardRegion),
                 getPipeEditHandles(),
-                pegs,
+                getPegs(),
                 buckets
         );
         //TODO: Add other board UI elements
@@ -6,21 +6,18 @@ import java.util.Arrays;
 import org.apache.commons.lang3.ObjectUtils;
 import org.joml.Vector2f;
 
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
 
 import org.joml.Vector3f;
 import org.joml.Vector4f;
 import uk.ac.cam.cl.groupprojectdelta.galtonboards.graphics.Drawable;
+import uk.ac.cam.cl.groupprojectdelta.galtonboards.graphics.MeshBuffer;
 import java.util.*;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
-import uk.ac.cam.cl.groupprojectdelta.galtonboards.workspace.Ball;
 import uk.ac.cam.cl.groupprojectdelta.galtonboards.workspace.LogicalLocation;
 import uk.ac.cam.cl.groupprojectdelta.galtonboards.workspace.board.ui.PipeEditHandle;
 import uk.ac.cam.cl.groupprojectdelta.galtonboards.workspace.Simulation;
+import uk.ac.cam.cl.groupprojectdelta.galtonboards.workspace.TagRegistry;
 import uk.ac.cam.cl.groupprojectdelta.galtonboards.workspace.Workspace;
 import uk.ac.cam.cl.groupprojectdelta.galtonboards.workspace.mouse.WorkspaceSelectable;
 
@@ -42,9 +39,18 @@ public class Bucket implements LogicalLocation, Drawable, WorkspaceSelectable {
     // Tag that gets given to any ball collected by this bucket
     private String tag;
 
-    private Set<Ball> ballsInBucket; // need this for visualisation
+    private int ballsInBucket; // need this for visualisation, the animated balls in this bucket's columns
     private long totalBalls;
 
+    // How many of the balls in ballsInBucket have each tag, indexed by tag id (see TagRegistry),
+    // kept up to date as balls come, go and change tag
+    private int[] ballsByTag = new int[16];
+
+    // Balls that have finished in this bucket and are no longer animated, either retired by the BallStore
+    // once they landed or sent straight here in fast forward (see Simulation.setFastForward), indexed by tag id
+    private int[] settledBallsByTag = new int[16];
+    private int settledBalls;
+
     List<String> ballsTaggedWith;
 
     String logLocType = "bucket"; // logical location type
@@ -56,6 +62,13 @@ public class Bucket implements LogicalLocation, Drawable, WorkspaceSelectable {
 
     public boolean relativeScale = false;
 
+    // The liquid bar is only rebuilt when the ball counters, bucket scale or tag colours have changed
+    private List<Vector4f> barStructure;
+    private boolean barStructureDirty = true;
+    private float barScale;
+    private boolean barRelativeScale;
+    private int barColourVersion;
+
     /*
     =====================================================================
                              CONSTRUCTORS
@@ -83,7 +96,7 @@ public class Bucket implements LogicalLocation, Drawable, WorkspaceSelectable {
         this.output = null;
         this.width = width;
         setOutputPosition();
-        this.ballsInBucket = new HashSet<>();
+        this.ballsInBucket = 0;
         this.totalBalls = 0;
         this.pipeEditHandle = new PipeEditHandle(this);
         this.ballsTaggedWith = new ArrayList<>();
@@ -125,6 +138,7 @@ public class Bucket implements LogicalLocation, Drawable, WorkspaceSelectable {
      */
     public void setWidth(int newWidth) {
         this.width = newWidth;
+        board.invalidateCompiled();
     }
 
     /**
@@ -133,6 +147,7 @@ public class Bucket implements LogicalLocation, Drawable, WorkspaceSelectable {
      */
     public void setStartColumn(int newStartColumn) {
         this.startColumn = newStartColumn;
+        board.invalidateCompiled();
     }
 
     /**
@@ -163,13 +178,15 @@ public class Bucket implements LogicalLocation, Drawable, WorkspaceSelectable {
     }
 
     /**
-     * Reset the output of this bucket by setting it to null
+     * Reset the output of this bucket by setting it to null (setOutput() also goes through here,
+     * which is what invalidates the board's compiled routing table).
      */
     public void clearOutput() {
         if (output != null) {
             output.updateInputs(this);
         }
         output = null;
+        board.invalidateCompiled();
     }
 
 
@@ -321,26 +338,133 @@ public class Bucket implements LogicalLocation, Drawable, WorkspaceSelectable {
     }
 
     @Override
-    public Set<Ball> balls() {
+    public int getBallCount() {
         return ballsInBucket;
     }
 
-    @Override
-    public void removeBall(Ball ball) {
-        ballsInBucket.remove(ball);
+    /**
+     * Stop counting a ball that has left one of this bucket's columns.
+     * @param tag : int - The id of the tag the ball had when it was counted.
+     */
+    public void removeBall(int tag) {
+        // Only take away what was counted here, in case the column was moved to another bucket in between
+        if (tag < ballsByTag.length && ballsByTag[tag] > 0) {
+            ballsInBucket--;
+            ballsByTag[tag]--;
+        }
         totalBalls--;
+        barStructureDirty = true;
     }
 
-    @Override
-    public void addBall(Ball ball) {
+    /**
+     * Count a ball that has reached one of this bucket's columns.
+     * @param tag : int - The id of the ball's tag.
+     */
+    public void addBall(int tag) {
         //if (tag != null) {ball.setTag(tag);}
-        ballsInBucket.add(ball);
+        ballsInBucket++;
+        ballsByTag = countTag(ballsByTag, tag);
+        totalBalls++;
+        barStructureDirty = true;
+        if (getLiquidBallCount() > getSimulation().getBucketScale() && relativeScale == false) {
+            getSimulation().enlargeBuckets();
+        }
+    }
+
+    /**
+     * Record a ball that has finished in this bucket and no longer needs to be animated.
+     * @param tag : int - The id of the tag the ball had when it arrived.
+     */
+    public void addSettledBall(int tag) {
+        settledBallsByTag = countTag(settledBallsByTag, tag);
+        settledBalls++;
         totalBalls++;
-        if (ballsInBucket.size() > getSimulation().getBucketScale() && relativeScale == false) {
+        barStructureDirty = true;
+        if (getLiquidBallCount() > getSimulation().getBucketScale() && relativeScale == false) {
             getSimulation().enlargeBuckets();
         }
     }
 
+    /**
+     * Forget every ball that was settled into this bucket (e.g. when the simulation is stopped).
+     */
+    public void clearSettledBalls() {
+        totalBalls -= settledBalls;
+        settledBalls = 0;
+        Arrays.fill(settledBallsByTag, 0);
+        barStructureDirty = true;
+    }
+
+    /**
+     * Getter for the settled ball counters (e.g. to save them in a checkpoint).
+     * @return A copy of the number of settled balls with each tag, indexed by tag id.
+     */
+    public int[] getSettledBallsByTag() {
+        return Arrays.copyOf(settledBallsByTag, settledBallsByTag.length);
+    }
+
+    /**
+     * Replace the settled ball counters (e.g. when restoring a checkpoint).
+     * @param byTag : int[] - The number of settled balls with each tag, indexed by tag id.
+     */
+    public void setSettledBallsByTag(int[] byTag) {
+        clearSettledBalls();
+        settledBallsByTag = Arrays.copyOf(byTag, Math.max(byTag.length, settledBallsByTag.length));
+        for (int count : byTag) {
+            settledBalls += count;
+        }
+        totalBalls += settledBalls;
+    }
+
+    /**
+     * Keep the per-tag counters right when a ball in one of this bucket's columns is given a new tag.
+     * @param oldTag : int - The id of the tag the ball had.
+     * @param newTag : int - The id of the tag the ball has now.
+     */
+    public void retagBall(int oldTag, int newTag) {
+        if (oldTag < ballsByTag.length && ballsByTag[oldTag] > 0) {
+            ballsByTag[oldTag]--;
+            ballsByTag = countTag(ballsByTag, newTag);
+            barStructureDirty = true;
+        }
+    }
+
+    /**
+     * Add one to a per-tag counter, growing the array if the tag is newer than it.
+     * @return The counter array, which may have been replaced.
+     */
+    private static int[] countTag(int[] counts, int tag) {
+        if (tag >= counts.length) {
+            counts = Arrays.copyOf(counts, Math.max(tag + 1, counts.length * 2));
+        }
+        counts[tag]++;
+        return counts;
+    }
+
+    /**
+     * Get how many liquid balls (animated or settled) in this bucket have a tag.
+     * @param tag : int - The tag id.
+     * @return The number of balls.
+     */
+    private int liquidBallsWithTag(int tag) {
+        int count = 0;
+        if (tag < ballsByTag.length) {
+            count += ballsByTag[tag];
+        }
+        if (tag < settledBallsByTag.length) {
+            count += settledBallsByTag[tag];
+        }
+        return count;
+    }
+
+    /**
+     * Get how many balls are currently shown as liquid in this bucket, animated or settled.
+     * @return The number of balls.
+     */
+    public int getLiquidBallCount() {
+        return ballsInBucket + settledBalls;
+    }
+
     @Override
     public List<String> getGivenTags() {
         return ballsTaggedWith;
@@ -366,13 +490,12 @@ public class Bucket implements LogicalLocation, Drawable, WorkspaceSelectable {
     public Map<String, Integer> liquifiedBallsByTag() {
         // Returns a map of ball tags to the number of them that are
         // liquified in a bucket
-        Set<Ball> liquid = ballsInBucket;
         Map<String, Integer> nByTag = new HashMap<>();
-        for (Ball ball : liquid) {
-            if (nByTag.containsKey(ball.getTag())) {
-                nByTag.put(ball.getTag(), nByTag.get(ball.getTag()) + 1);
-            } else {
-                nByTag.put(ball.getTag(), 1);
+        TagRegistry tags = TagRegistry.registry;
+        for (int tag = 0; tag < tags.size(); tag++) {
+            int count = liquidBallsWithTag(tag);
+            if (count != 0) {
+                nByTag.put(tags.getName(tag), count);
             }
         }
         return nByTag;
@@ -388,207 +511,99 @@ public class Bucket implements LogicalLocation, Drawable, WorkspaceSelectable {
     }
 
     public List<Vector4f> liquidBarStructure() {
-        /* FUTURE OPTIMISATION: this is currently called independently by each of the getMesh/getUV/getColourTemplate
-           functions; can save on performance by only calling it once and then having these methods access an
-           updated copy.
-        */
+        // This is called by getVertexCount and writeMesh every frame, so only rebuild it when it has changed
+        if (barStructureDirty || barScale != getSize() || barRelativeScale != relativeScale
+                || barColourVersion != getSimulation().getTagColourVersion()) {
+            barStructure = buildLiquidBarStructure();
+            barStructureDirty = false;
+            barScale = getSize();
+            barRelativeScale = relativeScale;
+            barColourVersion = getSimulation().getTagColourVersion();
+        }
+        return barStructure;
+    }
+
+    private List<Vector4f> buildLiquidBarStructure() {
         List<Vector4f> nrgbs = new ArrayList<>();
         /*
         For a vector in nrgbs, the .w is the number of balls, and .x/.y/.z corresponds to Red/Green/Blue
         (In any sensible language, there would be a built-in pair type that I would've used instead, but I didn't want
         to import things / create a new class just to have a pair type).
          */
-        Map<String, Integer> numByTag = liquifiedBallsByTag();
+        TagRegistry tags = TagRegistry.registry;
         if (relativeScale) {
             /*
             This is an option to make the bucket always display at full height, coloured in proportion to the balls
             inside it. Good for e.g. the second Bayes demo, where the number of healthy is much higher than the number
             of sick people.
              */
-            if (ballsInBucket.size() == 0) {
+            if (getLiquidBallCount() == 0) {
                 nrgbs.add(new Vector4f(0f, 0f, 0f, 1));
             } else {
-                for (String tag : numByTag.keySet()) {
-                    Vector4f nrgb = new Vector4f();
-                    nrgb.w = numByTag.get(tag) / (float)ballsInBucket.size();
-                    Vector3f colour = getSimulation().getTagColour(tag);
-                    nrgb.x = colour.x;
-                    nrgb.y = colour.y;
-                    nrgb.z = colour.z;
-                    nrgbs.add(nrgb);
+                for (int tag = 0; tag < tags.size(); tag++) {
+                    int count = liquidBallsWithTag(tag);
+                    if (count != 0) {
+                        nrgbs.add(new Vector4f(tags.getRed(tag), tags.getGreen(tag), tags.getBlue(tag),
+                                count / (float)getLiquidBallCount()));
+                    }
                 }
             }
         } else { // -> NORMAL NON-RELATIVE SCALE
             // white space sufficient to fill the part of the bar that isn't covered by liquified balls:
-            nrgbs.add(new Vector4f(1f, 1f, 1f, 1 - ballsInBucket.size() / getSize()));
-            for (String tag : numByTag.keySet()) {
-                Vector4f nrgb = new Vector4f();
-                nrgb.w = numByTag.get(tag) / getSize(); // getSize is the number of balls that fills a bucket
-                Vector3f colour = getSimulation().getTagColour(tag);
-                nrgb.x = colour.x;
-                nrgb.y = colour.y;
-                nrgb.z = colour.z;
-                nrgbs.add(nrgb);
+            nrgbs.add(new Vector4f(1f, 1f, 1f, 1 - getLiquidBallCount() / getSize()));
+            for (int tag = 0; tag < tags.size(); tag++) {
+                int count = liquidBallsWithTag(tag);
+                if (count != 0) {
+                    // getSize is the number of balls that fills a bucket
+                    nrgbs.add(new Vector4f(tags.getRed(tag), tags.getGreen(tag), tags.getBlue(tag), count / getSize()));
+                }
             }
         }
         //System.out.println(nrgbs);
         return nrgbs;
     }
 
-    private List<Float> getRectMesh(Vector2f bottomRight, Vector2f topLeft) {
-        //  +----+
-        //  |1 / |
-        //  | / 2|
-        //  +----+
-        return new ArrayList<>(Arrays.asList(
-            // Face 1
-            bottomRight.x, bottomRight.y, zEpsilon,
-            topLeft.x, bottomRight.y, zEpsilon,
-            topLeft.x, topLeft.y, zEpsilon,
-
-            // Face 2
-            bottomRight.x, bottomRight.y, zEpsilon,
-            bottomRight.x, topLeft.y, zEpsilon,
-            topLeft.x, topLeft.y, zEpsilon
-        ));
-
+    @Override
+    public int getVertexCount() {
+        return 4 * liquidBarStructure().size() + (output != null ? 4 : 0);
     }
 
     @Override
-    public List<Float> getMesh(float time) {
-        List<Float> points = new ArrayList<>();
+    public void writeMesh(float time, MeshBuffer buffer) {
+        final float top = 0f;
+        final float bottom = 0.5f;
+        final float left = 0.5f;
+        final float right = 1f;
+
         Vector2f lowBound = getBottomRight();
         Vector2f highBound = getTopLeft();
 
+        // A bar for each colour, stacked from the top of the bucket down
         List<Vector4f> nrgbs = liquidBarStructure();
-        List<Float> levels = new ArrayList<>();
         float height = highBound.y - lowBound.y;
         float currentHeight = highBound.y;
-        for (Vector4f nrgb : nrgbs) {
-            levels.add(currentHeight);
-            currentHeight -= nrgb.w * height;
-        }
-        levels.add(currentHeight);
-        int i = 0;
-        while (i + 1 < levels.size()) {
-            float y0 = levels.get(i);
-            float y1 = levels.get(i+1);
-            Vector2f bottomRight = new Vector2f(lowBound.x, y1);
-            Vector2f topLeft = new Vector2f(highBound.x, y0);
-            points = Stream.concat(points.stream(), getRectMesh(bottomRight, topLeft).stream()).collect(Collectors.toList());
-            ++i;
+        for (int i = 0; i < nrgbs.size(); i++) {
+            Vector4f nrgb = nrgbs.get(i);
+            float nextHeight = currentHeight - nrgb.w * height;
+            buffer.quad(lowBound.x, nextHeight, highBound.x, currentHeight, zEpsilon,
+                    top, bottom, left, right, nrgb.x, nrgb.y, nrgb.z);
+            currentHeight = nextHeight;
         }
 
         if (output != null) {
+            // The pipe from the bottom of this bucket to the board it outputs to
             final float w = highBound.x - lowBound.x;
             highBound = lowBound;
             lowBound = output.getInputPos();
             lowBound.x -= w / 2;
             lowBound.y += w;
 
-            points.addAll(Arrays.asList(
-                    highBound.x, highBound.y, zEpsilon,
-                    highBound.x + w, highBound.y, zEpsilon,
-                    lowBound.x + w, lowBound.y, zEpsilon,
-
-                    highBound.x, highBound.y, zEpsilon,
-                    lowBound.x, lowBound.y, zEpsilon,
-                    lowBound.x + w, lowBound.y, zEpsilon
-            ));
-        }
-
-        return points;
-    }
-
-    @Override
-    public List<Float> getUV() {
-        final float top = 0f;
-        final float bottom = 0.5f;
-        final float left = 0.5f;
-        final float right = 1f;
-
-        List<Vector4f> nrgbs = liquidBarStructure();
-
-        List<Float> UVs = new ArrayList<>();
-
-        for (int i = 0; i < nrgbs.size(); i++) {
-            UVs.add(top);
-            UVs.add(left);
-            UVs.add(bottom);
-            UVs.add(left);
-            UVs.add(bottom);
-            UVs.add(right);
-
-            UVs.add(top);
-            UVs.add(left);
-            UVs.add(top);
-            UVs.add(right);
-            UVs.add(bottom);
-            UVs.add(right);
+            // A parallelogram, so the corners are written one by one rather than with quad()
+            buffer.vertex(highBound.x, highBound.y, zEpsilon, top, left, 1f, 1f, 1f);
+            buffer.vertex(highBound.x + w, highBound.y, zEpsilon, bottom, left, 1f, 1f, 1f);
+            buffer.vertex(lowBound.x + w, lowBound.y, zEpsilon, bottom, right, 1f, 1f, 1f);
+            buffer.vertex(lowBound.x, lowBound.y, zEpsilon, top, right, 1f, 1f, 1f);
         }
-
-        if (output != null) {
-            UVs.addAll(List.of(
-                    // pipe
-                    // face 1
-                    top, left,
-                    bottom, left,
-                    bottom, right,
-                    // face 2
-                    top, left,
-                    top, right,
-                    bottom, right
-            ));
-        }
-
-        return UVs;
-    }
-
-    @Override
-    public List<Float> getColourTemplate() {
-        List<Vector4f> nrgbs = liquidBarStructure();
-
-        List<Float> colours = new ArrayList<>();
-
-        for (Vector4f nrgb : nrgbs) {
-            for (int i = 0; i < 6; i++) {
-                colours.add(nrgb.x);
-                colours.add(nrgb.y);
-                colours.add(nrgb.z);
-            }
-        }
-
-        /*return List.of(
-                1f, 1f, 1f,
-                1f, 1f, 1f,
-                1f, 1f, 1f,
-
-                1f, 1f, 1f,
-                1f, 1f, 1f,
-                1f, 1f, 1f,
-
-                1f, 0f, 0f, // change colour here
-                1f, 0f, 0f,
-                1f, 0f, 0f,
-
-                1f, 0f, 0f,
-                1f, 0f, 0f,
-                1f, 0f, 0f
-        ));*/
-
-        if (output != null) {
-            colours.addAll(List.of(
-                1f, 1f, 1f,
-                1f, 1f, 1f,
-                1f, 1f, 1f,
-
-                1f, 1f, 1f,
-                1f, 1f, 1f,
-                1f, 1f, 1f
-            ));
-        }
-
-        return colours;
     }
 
     PipeEditHandle getPipeEditHandle() {
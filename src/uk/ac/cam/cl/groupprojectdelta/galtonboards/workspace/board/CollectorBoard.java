@@ -1,11 +1,9 @@
 package uk.ac.cam.cl.groupprojectdelta.galtonboards.workspace.board;
 
 import org.joml.Vector2f;
+import uk.ac.cam.cl.groupprojectdelta.galtonboards.graphics.MeshBuffer;
 import uk.ac.cam.cl.groupprojectdelta.galtonboards.workspace.Workspace;
-import uk.ac.cam.cl.groupprojectdelta.galtonboards.workspace.board.ui.PipeEditHandle;
 
-import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 
 public class CollectorBoard extends Board {
@@ -32,9 +30,15 @@ public class CollectorBoard extends Board {
         return singlePeg;
     }
 
+    // The single peg drops balls into the first column whichever way they fall (see CollectorPeg)
     @Override
-    void setPegPositions() {
-        singlePeg.setPosition();
+    int leftColumnOf(int rowIndex) {
+        return 0;
+    }
+
+    @Override
+    int rightColumnOf(int rowIndex) {
+        return 0;
     }
 
 
@@ -77,6 +81,11 @@ public class CollectorBoard extends Board {
         return;
     }
 
+    @Override
+    public void resize(int newIsoGridWidth) {
+        return;
+    }
+
     /**
      * Signal that the boundaries of a bucket have been moved and get new neighbouring column positions.
      * @param leftEdge : boolean - Has the bucket's left or right edge been extended left?
@@ -137,114 +146,50 @@ public class CollectorBoard extends Board {
      */
 
     @Override
-    public List<Float> getMesh(float time) {
-        List<Float> points = new ArrayList<>();
-        Vector2f lowBound = new Vector2f();
-        Vector2f highBound = new Vector2f();
-        Vector2f halfDimensions = new Vector2f();
-        getDimensions().mul(0.5f, halfDimensions);
-
-
-        super.getWorldPos().add(halfDimensions, highBound);
-        super.getWorldPos().sub(halfDimensions, lowBound);
-
-
-        //  +----+
-        //  |1 / |
-        //  | / 2|
-        //  +----+
-
-        float zEpsilon = z + 1E-2f;
-
-        points = new ArrayList<>(Arrays.asList(
-                // Face 1
-                lowBound.x, lowBound.y, zEpsilon,
-                highBound.x, lowBound.y, zEpsilon,
-                highBound.x, highBound.y, zEpsilon,
-
-                // Face 2
-                lowBound.x, lowBound.y, zEpsilon,
-                lowBound.x, highBound.y, zEpsilon,
-                highBound.x, highBound.y, zEpsilon
-        ));
-
-        for (Bucket bucket : super.getBuckets()) {
-            points.addAll(bucket.getMesh(time));
-        }
-
-        if (Workspace.workspace.getClickableMap() == this) {
-            /*points.addAll(super.addRowButton.getMesh(time));
-            if (isoGridWidth > 1) {
-                points.addAll(super.removeRowButton.getMesh(time));
-            }*/
-            for (PipeEditHandle handle : getPipeEditHandles()) {
-                points.addAll(handle.getMesh(time));
-            }
-        }
-
-        return points;
+    public int getRetainedVertexCount() {
+        return 4;
     }
 
     @Override
-    public List<Float> getUV() {
+    public void writeRetainedMesh(MeshBuffer buffer) {
         final float top = 0f;
         final float bottom = 0.5f;
         final float left = 0.5f;
         final float right = 1f;
 
-        List<Float> UVs = new ArrayList<>(Arrays.asList(
-                // face 1
-                top, left,
-                bottom, left,
-                bottom, right,
-                // face 2
-                top, left,
-                top, right,
-                bottom, right
-        ));
+        Vector2f worldPos = getWorldPos();
+        Vector2f dimensions = getDimensions();
+        float zEpsilon = z + 1E-2f;
+        buffer.quad(worldPos.x - dimensions.x / 2f, worldPos.y - dimensions.y / 2f,
+                worldPos.x + dimensions.x / 2f, worldPos.y + dimensions.y / 2f,
+                zEpsilon, top, bottom, left, right, 1f, 1f, 1f);
+    }
 
+    @Override
+    public int getVertexCount() {
+        int count = 0;
         for (Bucket bucket : getBuckets()) {
-            UVs.addAll(bucket.getUV());
+            count += bucket.getVertexCount();
         }
-
         if (Workspace.workspace.getClickableMap() == this) {
-            /*UVs.addAll(addRowButton.getUV());
-            if (isoGridWidth > 1) {
-                UVs.addAll(removeRowButton.getUV());
-            }*/
-            for (PipeEditHandle handle : getPipeEditHandles()) {
-                UVs.addAll(handle.getUV());
+            for (Bucket bucket : getBuckets()) {
+                count += bucket.getPipeEditHandle().getVertexCount();
             }
         }
-
-        return UVs;
+        return count;
     }
 
     @Override
-    public List<Float> getColourTemplate() {
-        List<Float> ct = new ArrayList<>(Arrays.asList(
-                1f, 1f, 1f,
-                1f, 1f, 1f,
-                1f, 1f, 1f,
-
-                1f, 1f, 1f,
-                1f, 1f, 1f,
-                1f, 1f, 1f
-        ));
-
+    public void writeMesh(float time, MeshBuffer buffer) {
         for (Bucket bucket : getBuckets()) {
-            ct.addAll(bucket.getColourTemplate());
+            bucket.writeMesh(time, buffer);
         }
+
         if (Workspace.workspace.getClickableMap() == this) {
-            /*ct.addAll(addRowButton.getColourTemplate());
-            if (isoGridWidth > 1) {
-                ct.addAll(removeRowButton.getColourTemplate());
-            }*/
-            for (PipeEditHandle handle : getPipeEditHandles()) {
-                ct.addAll(handle.getColourTemplate());
+            // A collector board has no row buttons, just the pipe handles
+            for (Bucket bucket : getBuckets()) {
+                bucket.getPipeEditHandle().writeMesh(time, buffer);
             }
         }
-
-        return ct;
     }
 }
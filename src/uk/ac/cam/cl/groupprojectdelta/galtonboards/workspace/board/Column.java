@@ -47,6 +47,14 @@ public class Column {
         return bucket;
     }
 
+    /**
+     * Getter for the index of this column on its board.
+     * @return The column index.
+     */
+    public int getColumnIndex() {
+        return columnIndex;
+    }
+
     /**
      * This method exists to be overridden by ColumnTop and ColumnBottom.
      */
@@ -1,20 +1,18 @@
 package uk.ac.cam.cl.groupprojectdelta.galtonboards.workspace.board;
 
 import org.joml.Vector2f;
-import uk.ac.cam.cl.groupprojectdelta.galtonboards.workspace.Ball;
 import uk.ac.cam.cl.groupprojectdelta.galtonboards.workspace.LogicalLocation;
 
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
 
 public class ColumnBottom extends Column implements LogicalLocation {
 
     // The world coordinates of the top of this column
     private Vector2f worldPos;
 
-    private Set<Ball> ballSet;
+    // How many balls are in this part of the column
+    private int ballCount;
 
     private List<String> ballsTaggedWith;
 
@@ -33,7 +31,6 @@ public class ColumnBottom extends Column implements LogicalLocation {
      */
     public ColumnBottom(int columnIndex, Bucket bucket, Board board) {
         super(columnIndex, bucket, board);
-        ballSet = new HashSet<>();
         this.bucket = bucket;
         this.ballsTaggedWith = new ArrayList<>();
     }
@@ -44,6 +41,7 @@ public class ColumnBottom extends Column implements LogicalLocation {
     public void setBucket(Bucket bucket) {
         super.setBucket(bucket);
         this.bucket = bucket;
+        getBoard().invalidateCompiled();
     }
 
     /**
@@ -58,32 +56,44 @@ public class ColumnBottom extends Column implements LogicalLocation {
 
     public void setTag(String tag) {
         this.tag = tag;
+        getBoard().invalidateCompiled();
         System.out.println("SET TAG: " + tag);
     }
 
+    /**
+     * Getter for the tag given to balls as they leave the bottom of this column.
+     * @return The tag, or null if balls keep their current tag.
+     */
+    public String getTag() {
+        return tag;
+    }
+
     @Override
     public Vector2f getWorldPos() {
         return new Vector2f(worldPos);
     }
 
     @Override
-    public Set<Ball> balls() {
-        return ballSet;
+    public int getBallCount() {
+        return ballCount;
     }
 
-    @Override
-    public void addBall(Ball ball) {
-        ballSet.add(ball);
-        bucket.addBall(ball);
+    /**
+     * Count a ball that has reached this part of the column, in the column's bucket too.
+     * @param tag : int - The id of the ball's tag.
+     */
+    public void addBall(int tag) {
+        ballCount++;
+        bucket.addBall(tag);
     }
 
-    @Override
-    public void removeBall(Ball ball) {
-        ballSet.remove(ball);
-        bucket.removeBall(ball);
-        if (tag != null) {
-            ball.setTag(tag);
-        }
+    /**
+     * Stop counting a ball that has left this part of the column.
+     * @param tag : int - The id of the tag the ball had when it was counted.
+     */
+    public void removeBall(int tag) {
+        ballCount--;
+        bucket.removeBall(tag);
     }
 
     @Override
@@ -94,10 +104,12 @@ public class ColumnBottom extends Column implements LogicalLocation {
     @Override
     public void setGivenTags(List<String> newTagList) {
         ballsTaggedWith = newTagList;
+        getBoard().invalidateCompiled();
     }
 
     @Override
     public void clearGivenTags() {
         ballsTaggedWith = new ArrayList<>();
+        getBoard().invalidateCompiled();
     }
 }
@@ -1,13 +1,10 @@
 package uk.ac.cam.cl.groupprojectdelta.galtonboards.workspace.board;
 
 import org.joml.Vector2f;
-import uk.ac.cam.cl.groupprojectdelta.galtonboards.workspace.Ball;
 import uk.ac.cam.cl.groupprojectdelta.galtonboards.workspace.LogicalLocation;
 
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
 
 public class ColumnTop extends Column implements LogicalLocation {
 
@@ -17,12 +14,11 @@ public class ColumnTop extends Column implements LogicalLocation {
     // The world coordinates of the top of this column
     private Vector2f worldPos;
 
-    private Set<Ball> ballSet;
+    // How many balls are in this part of the column
+    private int ballCount;
 
     private List<String> ballsTaggedWith;
 
-    private Bucket bucket;
-
     /**
      * Create the top part of a column output of a board.
      * @param columnIndex : int - The index of this column.
@@ -33,10 +29,8 @@ public class ColumnTop extends Column implements LogicalLocation {
     public ColumnTop(int columnIndex, Bucket bucket, Board board, ColumnBottom columnBottom) {
         super(columnIndex, bucket, board);
         this.columnBottom = columnBottom;
-        this.bucket = bucket;
         this.ballsTaggedWith = new ArrayList<>();
         setPosition();
-        ballSet = new HashSet<>();
     }
 
     /**
@@ -73,20 +67,26 @@ public class ColumnTop extends Column implements LogicalLocation {
     }
 
     @Override
-    public Set<Ball> balls() {
-        return ballSet;
+    public int getBallCount() {
+        return ballCount;
     }
 
-    @Override
-    public void addBall(Ball ball) {
-        ballSet.add(ball);
-        bucket.addBall(ball);
+    /**
+     * Count a ball that has reached this part of the column, in the column's bucket too.
+     * @param tag : int - The id of the ball's tag.
+     */
+    public void addBall(int tag) {
+        ballCount++;
+        getBucket().addBall(tag);
     }
 
-    @Override
-    public void removeBall(Ball ball) {
-        ballSet.remove(ball);
-        bucket.removeBall(ball);
+    /**
+     * Stop counting a ball that has left this part of the column.
+     * @param tag : int - The id of the tag the ball had when it was counted.
+     */
+    public void removeBall(int tag) {
+        ballCount--;
+        getBucket().removeBall(tag);
     }
 
     @Override
@@ -97,10 +97,12 @@ public class ColumnTop extends Column implements LogicalLocation {
     @Override
     public void setGivenTags(List<String> newTagList) {
         ballsTaggedWith = newTagList;
+        getBoard().invalidateCompiled();
     }
 
     @Override
     public void clearGivenTags() {
         ballsTaggedWith = new ArrayList<>();
+        getBoard().invalidateCompiled();
     }
 }
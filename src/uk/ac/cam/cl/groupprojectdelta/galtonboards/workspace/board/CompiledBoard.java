@@ -0,0 +1,660 @@
+package uk.ac.cam.cl.groupprojectdelta.galtonboards.workspace.board;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.joml.Vector2f;
+import uk.ac.cam.cl.groupprojectdelta.galtonboards.workspace.RandomSource;
+import uk.ac.cam.cl.groupprojectdelta.galtonboards.workspace.TagRegistry;
+
+/**
+ * A flattened routing table for a board, built from its pegs, columns and buckets.
+ * Successors, probabilities and the column -> bucket mapping are stored in primitive arrays
+ * so that balls can be routed without allocating, scanning lists or checking types.
+ * Boards rebuild this lazily (see Board.getCompiled()) whenever they are edited.
+ */
+public final class CompiledBoard {
+
+    // Tag id meaning "doesn't tag balls" (other tag ids come from TagRegistry)
+    public static final int NO_TAG = -1;
+
+    // Guard against bucket outputs that form a loop between boards: a ball passes through at most this many boards
+    public static final int MAX_BOARD_HOPS = 1000;
+
+    private final Board board;
+
+    // Per peg: the probability of falling left, and where a ball goes on either side.
+    // A successor >= 0 is a peg index, a negative successor s is the column -(s + 1).
+    private final float[] leftProb;
+    private final int[] leftNext;
+    private final int[] rightNext;
+
+    // Per peg: the tag given to balls falling left/right, null if the peg doesn't tag balls
+    private final String[] leftTag;
+    private final String[] rightTag;
+    private final int[] leftTagId;
+    private final int[] rightTagId;
+
+    // Per column: the bucket it feeds, the tag given while falling through it and the tag given on leaving it
+    private final int[] columnBucket;
+    private final String[] columnTag;
+    private final String[] exitTag;
+    // The same tags as TagRegistry ids, with the top and bottom of the column kept apart for animated balls
+    private final int[] columnTopTagId;
+    private final int[] columnBottomTagId;
+    private final int[] exitTagId;
+
+    // Per bucket: the board it outputs to, null for a final bucket
+    private final Bucket[] buckets;
+    private final Board[] outputs;
+
+    // The objects the indices refer to, for code that still needs them (e.g. animated balls).
+    // Pegs are views made by the board on demand, so only their number is kept
+    private final int pegCount;
+    private final ColumnTop[] columns;
+
+    // Geometry, so positions can be read without allocating: the row of each peg, and where each peg,
+    // column top and column bottom is relative to the board's world position (which is kept up to date by the board)
+    private final int[] pegRow;
+    private final int rowCount;
+    private final float[] pegX;
+    private final float[] pegY;
+    private final float[] columnTopX;
+    private final float[] columnTopY;
+    private final float[] columnBottomX;
+    private final float[] columnBottomY;
+    private float originX;
+    private float originY;
+
+    // Whole-board outcomes, worked out the first time they're needed (see getOutcomeWeights()).
+    // Outcome o is column o / outcomeTags.length, leaving with the peg tag outcomeTags[o % outcomeTags.length]
+    // (outcomeTags[0] is null, meaning no peg on the way tagged the ball).
+    private double[] outcomeWeights;
+    private AliasTable outcomeTable;
+    private String[] outcomeTags;
+    private int[] outcomeTagIds;
+
+    // The probability every peg shares, or NaN if they don't all share one (or a peg tags balls, or the pegs
+    // aren't a plain triangle). When it is shared a ball's column is just how many times it falls right.
+    private final double sharedLeftProb;
+    private AliasTable rightsTable; // Binomial(rows, 1 - sharedLeftProb), built when first needed
+
+    // The board's own sampler for the distribution its pegs encode, or null if the pegs have to be followed
+    private final DistributionSampler sampler;
+
+    /**
+     * Report that a ball went through more than MAX_BOARD_HOPS boards, so the bucket outputs must form a loop.
+     * @param consequence : String - What is being done about it.
+     */
+    public static void reportLoop(String consequence) {
+        System.err.println(String.format("Bucket outputs form a loop, %s.", consequence));
+    }
+
+    /**
+     * Compile the current layout of a board.
+     * @param board : Board - The board to compile.
+     */
+    CompiledBoard(Board board) {
+        this.board = board;
+
+        List<Bucket> bucketList = board.getBuckets();
+        buckets = bucketList.toArray(new Bucket[0]);
+        outputs = new Board[buckets.length];
+        Map<Bucket, Integer> bucketIndices = new IdentityHashMap<>();
+        for (int b = 0; b < buckets.length; b++) {
+            bucketIndices.put(buckets[b], b);
+            outputs[b] = buckets[b].getOutput();
+        }
+
+        Vector2f origin = board.getWorldPos();
+        originX = origin.x;
+        originY = origin.y;
+
+        int columnCount = board.getIsoGridWidth() + 1;
+        columns = new ColumnTop[columnCount];
+        columnTopX = new float[columnCount];
+        columnTopY = new float[columnCount];
+        columnBottomX = new float[columnCount];
+        columnBottomY = new float[columnCount];
+        columnBucket = new int[columnCount];
+        columnTag = new String[columnCount];
+        exitTag = new String[columnCount];
+        columnTopTagId = new int[columnCount];
+        columnBottomTagId = new int[columnCount];
+        exitTagId = new int[columnCount];
+        for (int c = 0; c < columnCount; c++) {
+            ColumnTop column = board.getColumnTop(c);
+            ColumnBottom bottom = column.getColumnBottom();
+            columns[c] = column;
+            Vector2f topPos = column.getWorldPos();
+            Vector2f bottomPos = bottom.getWorldPos();
+            columnTopX[c] = topPos.x - originX;
+            columnTopY[c] = topPos.y - originY;
+            columnBottomX[c] = bottomPos.x - originX;
+            columnBottomY[c] = bottomPos.y - originY;
+            Integer b = bucketIndices.get(bottom.getBucket());
+            if (b == null) {
+                System.err.println(String.format("Column %d feeds a bucket that isn't on its board.", c));
+                b = 0;
+            }
+            columnBucket[c] = b;
+            // The bottom of the column is reached after the top, so its tag wins
+            columnTag[c] = firstTag(column.getGivenTags());
+            if (bottom.getGivenTags().size() != 0) {
+                columnTag[c] = firstTag(bottom.getGivenTags());
+            }
+            exitTag[c] = bottom.getTag();
+            columnTopTagId[c] = tagId(firstTag(column.getGivenTags()));
+            columnBottomTagId[c] = tagId(firstTag(bottom.getGivenTags()));
+            exitTagId[c] = tagId(exitTag[c]);
+        }
+
+        // Read straight from the peg grid, making a Peg for each of millions of pegs would be far slower
+        PegGrid grid = board.getPegGrid();
+        pegCount = grid.size();
+        leftProb = new float[pegCount];
+        leftNext = new int[pegCount];
+        rightNext = new int[pegCount];
+        leftTag = new String[pegCount];
+        rightTag = new String[pegCount];
+        leftTagId = new int[pegCount];
+        rightTagId = new int[pegCount];
+        pegRow = new int[pegCount];
+        pegX = new float[pegCount];
+        pegY = new float[pegCount];
+        Arrays.fill(leftTagId, NO_TAG);
+        Arrays.fill(rightTagId, NO_TAG);
+        float halfHeight = board.getDimensions().y / 2f;
+        int bottomRow = board.getIsoGridWidth() - 1;
+        // Pegs are indexed row by row from the root, so the pegs below peg i on row r are i + r + 1 and i + r + 2
+        int row = 0;
+        int rowStart = 0;
+        float rowY = Peg.offsetY(0) + halfHeight;
+        for (int i = 0; i < pegCount; i++) {
+            if (i - rowStart > row) {
+                rowStart = i;
+                row++;
+                rowY = Peg.offsetY(row) + halfHeight;
+            }
+            pegRow[i] = row;
+            pegX[i] = Peg.offsetX(row, i - rowStart);
+            pegY[i] = rowY;
+            leftProb[i] = grid.getProbability(i);
+            if (row == bottomRow) { // balls fall into a column
+                leftNext[i] = -(board.leftColumnOf(i - rowStart) + 1);
+                rightNext[i] = -(board.rightColumnOf(i - rowStart) + 1);
+            } else {
+                leftNext[i] = i + row + 1;
+                rightNext[i] = i + row + 2;
+            }
+        }
+        // Only the pegs that hand out tags need looking at
+        for (int i : grid.getTaggedPegs()) {
+            List<String> givenTags = grid.getGivenTags(i);
+            leftTag[i] = givenTags.get(0);
+            rightTag[i] = givenTags.get(givenTags.size() == 1 ? 0 : 1);
+            leftTagId[i] = tagId(leftTag[i]);
+            rightTagId[i] = tagId(rightTag[i]);
+        }
+        rowCount = pegCount == 0 ? 0 : row + 1;
+
+        sharedLeftProb = findSharedLeftProb();
+        DistributionSampler boardSampler = board.getSampler();
+        if (boardSampler != null && boardSampler.getColumnCount() != columnCount) {
+            System.err.println("A board's sampler doesn't match its columns, following its pegs instead.");
+            boardSampler = null;
+        }
+        sampler = boardSampler;
+        if (sampler != null || !Double.isNaN(sharedLeftProb)) {
+            // No peg tags a ball, so the only outcomes are the columns
+            outcomeTags = new String[] {null};
+            outcomeTagIds = new int[] {NO_TAG};
+        }
+    }
+
+    /**
+     * Check whether every peg falls left with the same probability, without tagging balls,
+     * and the pegs form a plain triangle where peg k of the bottom row feeds columns k and k + 1.
+     * @return The shared probability, or NaN if there isn't one.
+     */
+    private double findSharedLeftProb() {
+        if (pegCount == 0 || pegCount != rowCount * (rowCount + 1) / 2 || columns.length != rowCount + 1) {
+            return Double.NaN;
+        }
+        int bottomRowStart = pegCount - rowCount;
+        for (int i = 0; i < pegCount; i++) {
+            if (leftProb[i] != leftProb[0] || leftTag[i] != null || rightTag[i] != null) {
+                return Double.NaN;
+            }
+            boolean plain = i < bottomRowStart
+                    ? !isColumn(leftNext[i])
+                    : leftNext[i] == -(i - bottomRowStart + 1) && rightNext[i] == -(i - bottomRowStart + 2);
+            if (!plain) {
+                return Double.NaN;
+            }
+        }
+        return leftProb[0];
+    }
+
+    /**
+     * Move the geometry along with the board.
+     * @param origin : Vector2f - The board's new world position.
+     */
+    void setOrigin(Vector2f origin) {
+        originX = origin.x;
+        originY = origin.y;
+    }
+
+    /**
+     * Work out the probability of every (column, last peg tag) outcome for a ball dropped on the root peg.
+     */
+    private void buildOutcomeWeights() {
+        // Every distinct tag the pegs hand out, index 0 is "not tagged by a peg on this board"
+        List<String> tagList = new ArrayList<>();
+        tagList.add(null);
+        for (int i = 0; i < pegCount; i++) {
+            if (leftTag[i] != null && !tagList.contains(leftTag[i])) {
+                tagList.add(leftTag[i]);
+            }
+            if (rightTag[i] != null && !tagList.contains(rightTag[i])) {
+                tagList.add(rightTag[i]);
+            }
+        }
+        String[] tags = tagList.toArray(new String[0]);
+        int tagCount = tags.length;
+        int[] tagIds = new int[tagCount];
+        for (int t = 0; t < tagCount; t++) {
+            tagIds[t] = tagId(tags[t]);
+        }
+
+        // Push probability down the pegs in index order, every peg comes after both of its parents
+        double[][] mass = new double[tagCount][pegCount];
+        double[] weights = new double[columns.length * tagCount];
+        if (pegCount > 0) {
+            mass[0][0] = 1;
+        }
+        for (int i = 0; i < pegCount; i++) {
+            for (int side = 0; side < 2; side++) {
+                boolean left = side == 0;
+                double p = left ? leftProb[i] : 1 - leftProb[i];
+                int next = next(i, left);
+                String pegTag = getPegTag(i, left);
+                int pegTagIndex = pegTag == null ? -1 : tagList.indexOf(pegTag);
+                for (int t = 0; t < tagCount; t++) {
+                    double m = mass[t][i] * p;
+                    if (m == 0) {
+                        continue;
+                    }
+                    int outTag = pegTagIndex == -1 ? t : pegTagIndex;
+                    if (isColumn(next)) {
+                        weights[toColumn(next) * tagCount + outTag] += m;
+                    } else {
+                        mass[outTag][next] += m;
+                    }
+                }
+            }
+        }
+        outcomeTags = tags;
+        outcomeTagIds = tagIds;
+        outcomeWeights = weights;
+    }
+
+    private static String firstTag(List<String> givenTags) {
+        return givenTags.size() == 0 ? null : givenTags.get(0);
+    }
+
+    private static int tagId(String tag) {
+        return tag == null ? NO_TAG : TagRegistry.registry.intern(tag);
+    }
+
+    /*
+    =====================================================================
+                                 ROUTING
+    =====================================================================
+     */
+
+    /**
+     * Check whether a successor refers to a column rather than a peg.
+     * @param next : int - A successor returned by next().
+     * @return True if the successor is a column.
+     */
+    public static boolean isColumn(int next) {
+        return next < 0;
+    }
+
+    /**
+     * Convert a column successor into its column index.
+     * @param next : int - A successor returned by next() for which isColumn() holds.
+     * @return The index of the column.
+     */
+    public static int toColumn(int next) {
+        return -(next + 1);
+    }
+
+    /**
+     * Get where a ball goes after a peg.
+     * @param peg : int - The index of the peg.
+     * @param left : boolean - Whether the ball fell to the left.
+     * @return The index of the next peg, or a negative value for a column (see isColumn() and toColumn()).
+     */
+    public int next(int peg, boolean left) {
+        return left ? leftNext[peg] : rightNext[peg];
+    }
+
+    /**
+     * Get the probability that a ball falls to the left of a peg.
+     * @param peg : int - The index of the peg.
+     * @return The probability of falling left.
+     */
+    public float leftProb(int peg) {
+        return leftProb[peg];
+    }
+
+    /**
+     * Get the tag a peg gives to balls falling to one side.
+     * @param peg : int - The index of the peg.
+     * @param left : boolean - Whether the ball fell to the left.
+     * @return The tag, or null if the peg doesn't tag balls.
+     */
+    public String getPegTag(int peg, boolean left) {
+        return left ? leftTag[peg] : rightTag[peg];
+    }
+
+    /**
+     * Get the id of the tag a peg gives to balls falling to one side.
+     * @param peg : int - The index of the peg.
+     * @param left : boolean - Whether the ball fell to the left.
+     * @return The tag id, or NO_TAG if the peg doesn't tag balls.
+     */
+    public int getPegTagId(int peg, boolean left) {
+        return left ? leftTagId[peg] : rightTagId[peg];
+    }
+
+    /**
+     * Get the tag given to balls falling through a column.
+     * @param column : int - The index of the column.
+     * @return The tag, or null if the column doesn't tag balls.
+     */
+    public String getColumnTag(int column) {
+        return columnTag[column];
+    }
+
+    /**
+     * Get the tag given to balls as they leave the bottom of a column for the next board.
+     * @param column : int - The index of the column.
+     * @return The tag, or null if balls keep their current tag.
+     */
+    public String getExitTag(int column) {
+        return exitTag[column];
+    }
+
+    /**
+     * Get the id of the tag the top of a column gives to balls.
+     * @param column : int - The index of the column.
+     * @return The tag id, or NO_TAG if the top of the column doesn't tag balls.
+     */
+    public int getColumnTopTagId(int column) {
+        return columnTopTagId[column];
+    }
+
+    /**
+     * Get the id of the tag the bottom of a column gives to balls.
+     * @param column : int - The index of the column.
+     * @return The tag id, or NO_TAG if the bottom of the column doesn't tag balls.
+     */
+    public int getColumnBottomTagId(int column) {
+        return columnBottomTagId[column];
+    }
+
+    /**
+     * Get the id of the tag given to balls as they leave the bottom of a column for the next board.
+     * @param column : int - The index of the column.
+     * @return The tag id, or NO_TAG if balls keep their current tag.
+     */
+    public int getExitTagId(int column) {
+        return exitTagId[column];
+    }
+
+    /**
+     * Get the index (into getBuckets()) of the bucket a column feeds.
+     * @param column : int - The index of the column.
+     * @return The bucket index.
+     */
+    public int getBucketIndex(int column) {
+        return columnBucket[column];
+    }
+
+    /**
+     * Get the bucket a column feeds, without scanning the bucket list.
+     * @param column : int - The index of the column.
+     * @return The bucket.
+     */
+    public Bucket getBucket(int column) {
+        return buckets[columnBucket[column]];
+    }
+
+    /**
+     * Get the board that balls leaving a column fall into.
+     * @param column : int - The index of the column.
+     * @return The next board, or null if the column feeds a final bucket.
+     */
+    public Board getOutput(int column) {
+        return outputs[columnBucket[column]];
+    }
+
+    /**
+     * Decide where a ball dropped on the root peg ends up without simulating each peg, in O(1) time.
+     * The alias table is built the first time this is called and kept until the board is edited.
+     * @param u : double - A uniform random number in [0, 1).
+     * @return The outcome, see getOutcomeColumn() and getOutcomeTag().
+     */
+    public int sampleOutcome(double u) {
+        if (outcomeTable == null) {
+            outcomeTable = new AliasTable(getOutcomeWeights());
+        }
+        return outcomeTable.sample(u);
+    }
+
+    /**
+     * Get the probability of each outcome for a ball dropped on the root peg, which is what both sampleOutcome()
+     * and the exact distribution (see ExactDistribution) are built from. Outcomes that keep the ball's tag
+     * (getOutcomeTag() is null) hold whatever tag the ball arrived with, so mass with any tag can be split with
+     * the same weights. Worked out the first time it is asked for and kept until the board is edited.
+     * @return The probabilities, indexed by outcome. Shared, so they mustn't be changed.
+     */
+    public double[] getOutcomeWeights() {
+        if (outcomeWeights == null) {
+            buildOutcomeWeights();
+        }
+        return outcomeWeights;
+    }
+
+    /**
+     * Decide where a ball dropped on the root peg ends up, taking the fastest route for this board.
+     * A distribution board whose pegs haven't been edited samples the column itself (see getSampler()).
+     * If every peg shares one probability (see hasSharedLeftProb()), the column is sampled straight from the
+     * number of right turns. Otherwise the outcome comes from the alias table.
+     * @param random : RandomSource - Where to draw the random numbers from.
+     * @return The outcome, see getOutcomeColumn() and getOutcomeTag().
+     */
+    public int sampleOutcome(RandomSource random) {
+        // Outcomes are just columns in both cases, as no peg hands out a tag
+        if (sampler != null) {
+            return sampler.sample(random);
+        }
+        if (hasSharedLeftProb()) {
+            return sampleSharedColumn(random);
+        }
+        return sampleOutcome(random.nextDouble());
+    }
+
+    /**
+     * Getter for the exact sampler of the distribution the board encodes.
+     * @return The sampler, or null if the board isn't a distribution board or its pegs have been edited.
+     */
+    public DistributionSampler getSampler() {
+        return sampler;
+    }
+
+    /**
+     * Check whether every peg falls left with the same probability, hands out no tags, and the pegs
+     * form a plain triangle, so sampleSharedColumn() can be used.
+     * @return True if the board has a shared probability.
+     */
+    public boolean hasSharedLeftProb() {
+        return !Double.isNaN(sharedLeftProb);
+    }
+
+    /**
+     * Decide which column a ball dropped on the root peg falls into, on a board where every peg shares one
+     * probability. The column is the number of times the ball falls right, so with probability 0.5 it is the
+     * number of set bits in one random long per 64 rows. Other probabilities are sampled from the binomial
+     * distribution with an alias table.
+     * @param random : RandomSource - Where to draw the random numbers from.
+     * @return The index of the column.
+     */
+    public int sampleSharedColumn(RandomSource random) {
+        if (sharedLeftProb == 0.5) {
+            int rights = 0;
+            int rows = rowCount;
+            for (; rows >= 64; rows -= 64) {
+                rights += Long.bitCount(random.nextLong());
+            }
+            if (rows > 0) {
+                rights += Long.bitCount(random.nextLong() & ((1L << rows) - 1));
+            }
+            return rights;
+        }
+        if (rightsTable == null) {
+            rightsTable = new AliasTable(BinomialSampler.weights(rowCount, 1 - sharedLeftProb));
+        }
+        return rightsTable.sample(random.nextDouble());
+    }
+
+    /**
+     * Get the column a ball falls into for an outcome returned by sampleOutcome().
+     * @param outcome : int - The sampled outcome.
+     * @return The index of the column.
+     */
+    public int getOutcomeColumn(int outcome) {
+        return outcome / outcomeTags.length;
+    }
+
+    /**
+     * Get the tag the last tagged peg gave a ball for an outcome returned by sampleOutcome().
+     * @param outcome : int - The sampled outcome.
+     * @return The tag, or null if no peg on this board tagged the ball.
+     */
+    public String getOutcomeTag(int outcome) {
+        return outcomeTags[outcome % outcomeTags.length];
+    }
+
+    /**
+     * Get the id of the tag the last tagged peg gave a ball for an outcome returned by sampleOutcome().
+     * @param outcome : int - The sampled outcome.
+     * @return The tag id, or NO_TAG if no peg on this board tagged the ball.
+     */
+    public int getOutcomeTagId(int outcome) {
+        return outcomeTagIds[outcome % outcomeTagIds.length];
+    }
+
+    /*
+    =====================================================================
+                                 GEOMETRY
+    =====================================================================
+     */
+
+    /**
+     * Get which row a peg is on, counting from 0 at the root. A ball meets exactly one peg on each row.
+     * @param peg : int - The index of the peg.
+     * @return The row.
+     */
+    public int getPegRow(int peg) {
+        return pegRow[peg];
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * Get how many 64-bit words it takes to hold one choice bit for each row of the board.
+     * @return The number of words.
+     */
+    public int getChoiceWords() {
+        return (rowCount + 63) >> 6;
+    }
+
+    public float getOriginX() {
+        return originX;
+    }
+
+    public float getOriginY() {
+        return originY;
+    }
+
+    public float getPegX(int peg) {
+        return originX + pegX[peg];
+    }
+
+    public float getPegY(int peg) {
+        return originY + pegY[peg];
+    }
+
+    public float getColumnTopX(int column) {
+        return originX + columnTopX[column];
+    }
+
+    public float getColumnTopY(int column) {
+        return originY + columnTopY[column];
+    }
+
+    public float getColumnBottomX(int column) {
+        return originX + columnBottomX[column];
+    }
+
+    public float getColumnBottomY(int column) {
+        return originY + columnBottomY[column];
+    }
+
+    /*
+    =====================================================================
+                                 GETTERS
+    =====================================================================
+     */
+
+    /**
+     * Getter for the board this was compiled from.
+     * @return The board.
+     */
+    public Board getBoard() {
+        return board;
+    }
+
+    public int getPegCount() {
+        return pegCount;
+    }
+
+    public int getColumnCount() {
+        return columns.length;
+    }
+
+    public int getBucketCount() {
+        return buckets.length;
+    }
+
+    public Peg getPeg(int peg) {
+        return board.getPeg(peg);
+    }
+
+    public ColumnTop getColumnTop(int column) {
+        return columns[column];
+    }
+
+    public Bucket getBucketAt(int bucket) {
+        return buckets[bucket];
+    }
+}
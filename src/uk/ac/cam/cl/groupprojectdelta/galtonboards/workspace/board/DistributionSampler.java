@@ -0,0 +1,31 @@
+package uk.ac.cam.cl.groupprojectdelta.galtonboards.workspace.board;
+
+import uk.ac.cam.cl.groupprojectdelta.galtonboards.workspace.RandomSource;
+
+/**
+ * An exact sampler for the distribution a board's pegs encode, so a ball's column can be drawn directly
+ * rather than by following the pegs one at a time. Distribution boards hand one out while their pegs are
+ * still as they set them up (see Board.getSampler()).
+ */
+public interface DistributionSampler {
+
+    /**
+     * Draw the column a ball dropped on the root peg falls into.
+     * @param random : RandomSource - Where to draw the random numbers from.
+     * @return The index of the column.
+     */
+    int sample(RandomSource random);
+
+    /**
+     * Get the probability of a ball falling into a column.
+     * @param column : int - The index of the column.
+     * @return The probability, 0 if there is no such column.
+     */
+    double pmf(int column);
+
+    /**
+     * Getter for the number of columns the distribution is over.
+     * @return The number of columns.
+     */
+    int getColumnCount();
+}
@@ -1,8 +1,6 @@
 package uk.ac.cam.cl.groupprojectdelta.galtonboards.workspace.board;
 
 import org.joml.Vector2f;
-import uk.ac.cam.cl.groupprojectdelta.galtonboards.workspace.Simulation;
-import uk.ac.cam.cl.groupprojectdelta.galtonboards.workspace.Workspace;
 
 import java.util.List;
 
@@ -83,47 +81,25 @@ public class GaussianBoard extends Board {
      */
     public void setNumColumns(int numColumns) {
         if (numColumns >= 0) {
-            int rowDifference = numColumns-this.numColumns;
-            if (rowDifference > 0) {
-                // Keep adding rows until this.steps = steps
-                for (int i = 0; i < rowDifference; i++) {
-                    addRow();
-                }
-            }
-            else if (rowDifference < 0) {
-                // Keep removing rows until this.steps = steps
-                for (int i = 0; i < -rowDifference; i++) {
-                    removeRow();
-                }
-            }
+            resize(numColumns - 1);
         }
         else { System.err.println(numColumns + " is not a valid number of columns in the Gaussian distribution."); }
     }
 
     /**
-     * Add a new row of pegs when editing the board. This method should be called from the UI "plus" button.
+     * Change the number of rows of pegs (and so the number of columns) in one go.
+     * @param newIsoGridWidth : int - How many pegs the bottom row should have.
      */
     @Override
-    public void addRow() {
-        if (Workspace.workspace.getSimulation().getSimulationState() == Simulation.SimulationState.Stopped) {
-            super.addRow();
-            numColumns++;
-            // Add tag to the new bucket and correct previous tag if still default
-            Bucket newB = getBucket(getIsoGridWidth());
+    public void resize(int newIsoGridWidth) {
+        int oldIsoGridWidth = getIsoGridWidth();
+        super.resize(newIsoGridWidth);
+        if (getIsoGridWidth() != oldIsoGridWidth) {
+            numColumns = getIsoGridWidth() + 1;
             fixAllBucketTags();
         }
     }
 
-    /**
-     * Remove a row of pegs when editing the board. This method should be called from the UI "minus" button.
-     */
-    @Override
-    public void removeRow() {
-        super.removeRow();
-        numColumns--;
-        fixAllBucketTags();
-    }
-
     /**
      * Signal that the boundaries of a bucket have been moved and get new neighbouring column positions.
      * @param leftEdge : boolean - Has the bucket's left or right edge been extended left?
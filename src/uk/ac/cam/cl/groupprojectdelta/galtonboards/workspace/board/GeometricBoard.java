@@ -1,9 +1,6 @@
 package uk.ac.cam.cl.groupprojectdelta.galtonboards.workspace.board;
 
 import org.joml.Vector2f;
-import org.joml.Vector2i;
-import uk.ac.cam.cl.groupprojectdelta.galtonboards.workspace.Simulation;
-import uk.ac.cam.cl.groupprojectdelta.galtonboards.workspace.Workspace;
 
 import java.util.List;
 
@@ -45,11 +42,19 @@ public class GeometricBoard extends Board {
      * Reset all of the peg values so that they follow the Geometric distribution.
      */
     private void fixAllPegs() {
-        for (Peg peg : getPegs()) {
-            Vector2i gp = peg.getGridPos();
-            if(gp.x == gp.y) { peg.setProbability(probPerTrial); }
-            else { peg.setProbability(1f); }
+        // Set the grid directly rather than through a Peg for each peg
+        PegGrid grid = getPegGrid();
+        grid.fill(1f);
+        int row = 0;
+        int rowStart = 0;
+        for (int i = 0; i < grid.size(); i++) {
+            if (i - rowStart > row) {
+                rowStart = i;
+                row++;
+            }
+            if (i - rowStart == row) { grid.setProbability(i, probPerTrial); }
         }
+        invalidateCompiled();
     }
 
     /**
@@ -97,62 +102,47 @@ public class GeometricBoard extends Board {
      */
     public void setNumUniqueTrials(int k) {
         if (k >= 0) {
-            int rowDifference = k-numUniqueTrials;
-            if (rowDifference > 0) {
-                // Keep adding rows until numUniqueTrials = n
-                for (int i = 0; i < rowDifference; i++) {
-                    addRow();
-                }
-            }
-            else if (rowDifference < 0) {
-                // Keep removing rows until numTrials = n
-                for (int i = 0; i < -rowDifference; i++) {
-                    removeRow();
-                }
-            }
+            resize(k);
         }
         else { System.err.println(k + " is not a valid number of trials for the Binomial distribution."); }
     }
 
     /**
-     * Add a new row of pegs when editing the board. This method should be called from the UI "plus" button.
+     * Change the number of rows of pegs (and so the number of unique trials) in one go.
+     * @param newIsoGridWidth : int - How many pegs the bottom row should have.
      */
     @Override
-    public void addRow() {
-        if (Workspace.workspace.getSimulation().getSimulationState() == Simulation.SimulationState.Stopped) {
-            super.addRow();
-            numUniqueTrials++;
-            // Correct the probability values of the new pegs
-            List<Peg> pegs = getPegs();
-            for (int i = pegs.size() - getIsoGridWidth(); i < pegs.size(); i++) {
-                if (i == pegs.size() - 1) {
-                    pegs.get(i).setProbability(probPerTrial);
-                } else {
-                    pegs.get(i).setProbability(1f);
+    public void resize(int newIsoGridWidth) {
+        int oldIsoGridWidth = getIsoGridWidth();
+        super.resize(newIsoGridWidth);
+        numUniqueTrials = getIsoGridWidth();
+        if (numUniqueTrials > oldIsoGridWidth) {
+            // Correct the probability values of the new pegs, only the last peg of each row can stop
+            PegGrid grid = getPegGrid();
+            for (int row = oldIsoGridWidth; row < numUniqueTrials; row++) {
+                int rowStart = (row * (row + 1)) / 2;
+                for (int i = rowStart; i < rowStart + row; i++) {
+                    grid.setProbability(i, 1f);
                 }
+                grid.setProbability(rowStart + row, probPerTrial);
             }
-            // Add tag to the new bucket and correct previous tag if still default
-            Bucket newB = getBucket(getIsoGridWidth());
-            newB.setTag("k>" + numUniqueTrials);
-            Bucket prevB = getBucket(getIsoGridWidth() - 1);
-            if (prevB.getTag() == ("k>" + (numUniqueTrials - 1))) {
-                prevB.setTag("k=" + (numUniqueTrials));
+            invalidateCompiled();
+            // Correct the previous last tag if still default, and add tags to the new buckets
+            Bucket prevB = getBucket(oldIsoGridWidth);
+            if (("k>" + oldIsoGridWidth).equals(prevB.getTag())) {
+                prevB.setTag("k=" + (oldIsoGridWidth + 1));
             }
-        }
-    }
-
-    /**
-     * Remove a row of pegs when editing the board. This method should be called from the UI "minus" button.
-     */
-    @Override
-    public void removeRow() {
-        if (Workspace.workspace.getSimulation().getSimulationState() == Simulation.SimulationState.Stopped) {
-            super.removeRow();
-            numUniqueTrials--;
+            List<Bucket> buckets = getBuckets();
+            for (int i = buckets.size() - (numUniqueTrials - oldIsoGridWidth); i < buckets.size(); i++) {
+                Bucket newB = buckets.get(i);
+                if (newB.getStartColumn() == numUniqueTrials) { newB.setTag("k>" + numUniqueTrials); }
+                else { newB.setTag("k=" + (newB.getStartColumn() + 1)); }
+            }
+        } else if (numUniqueTrials < oldIsoGridWidth) {
             // Change the tag of the last bucket if it is still default
-            Bucket last = getBucket(getIsoGridWidth());
-            if (last.getTag() == ("k=" + (numUniqueTrials + 1))) {
-                last.setTag("k>" + (numUniqueTrials));
+            Bucket last = getBucket(numUniqueTrials);
+            if (("k=" + (numUniqueTrials + 1)).equals(last.getTag())) {
+                last.setTag("k>" + numUniqueTrials);
             }
         }
     }
@@ -227,6 +217,34 @@ public class GeometricBoard extends Board {
     @Override
     public Distribution getDistribution() {return Distribution.Geometric;}
 
+    /**
+     * Get an exact geometric sampler, as long as no peg has been edited since fixAllPegs().
+     * @return The sampler, or null if a peg has been edited.
+     */
+    @Override
+    public DistributionSampler getSampler() {
+        // Read the peg grid directly, this is called on every recompile and the board may have millions of pegs
+        PegGrid grid = getPegGrid();
+        if (grid.hasGivenTags()) {
+            return null;
+        }
+        // If every peg is the same, the root and the first peg off the diagonal are enough to tell
+        int checked = grid.isUniform() ? Math.min(grid.size(), 2) : grid.size();
+        int row = 0;
+        int rowStart = 0;
+        for (int i = 0; i < checked; i++) {
+            if (i - rowStart > row) {
+                rowStart = i;
+                row++;
+            }
+            float expected = i - rowStart == row ? probPerTrial : 1f;
+            if (grid.getProbability(i) != expected) {
+                return null;
+            }
+        }
+        return new GeometricSampler(getIsoGridWidth(), probPerTrial);
+    }
+
     @Override
     public String toString() {
         return "Geometric board of width " + super.isoGridWidth;
@@ -0,0 +1,52 @@
+package uk.ac.cam.cl.groupprojectdelta.galtonboards.workspace.board;
+
+import uk.ac.cam.cl.groupprojectdelta.galtonboards.workspace.RandomSource;
+
+/**
+ * Geo(p) cut off after n trials: column c < n means the first success was trial c + 1, and column n holds
+ * every ball that needed more than n trials (the "k>n" bucket). Sampled by inverting the CDF in O(1).
+ */
+public final class GeometricSampler implements DistributionSampler {
+    private final int trials;
+    private final double probPerTrial;
+    private final double logFailure; // log(1 - p)
+
+    /**
+     * Create a sampler for a geometric distribution.
+     * @param trials : int - How many trials get a column of their own (n).
+     * @param probPerTrial : double - The probability of a trial succeeding (p).
+     */
+    public GeometricSampler(int trials, double probPerTrial) {
+        this.trials = Math.max(0, trials);
+        this.probPerTrial = probPerTrial;
+        this.logFailure = Math.log1p(-probPerTrial);
+    }
+
+    @Override
+    public int sample(RandomSource random) {
+        if (probPerTrial >= 1) {
+            return 0;
+        }
+        if (probPerTrial <= 0) {
+            return trials;
+        }
+        // P(X >= c) = (1 - p)^c, so the number of failures before the first success is floor(log(u) / log(1 - p))
+        double u = 1 - random.nextDouble(); // in (0, 1]
+        double failures = Math.floor(Math.log(u) / logFailure);
+        return failures >= trials ? trials : (int) failures;
+    }
+
+    @Override
+    public double pmf(int column) {
+        if (column < 0 || column > trials) {
+            return 0;
+        }
+        double reached = Math.pow(1 - probPerTrial, column);
+        return column == trials ? reached : reached * probPerTrial;
+    }
+
+    @Override
+    public int getColumnCount() {
+        return trials + 1;
+    }
+}
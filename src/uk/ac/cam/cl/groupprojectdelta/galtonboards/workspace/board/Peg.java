@@ -2,33 +2,27 @@ package uk.ac.cam.cl.groupprojectdelta.galtonboards.workspace.board;
 
 import org.joml.Vector2f;
 import org.joml.Vector2i;
-import uk.ac.cam.cl.groupprojectdelta.galtonboards.workspace.Ball;
 import uk.ac.cam.cl.groupprojectdelta.galtonboards.workspace.LogicalLocation;
 import uk.ac.cam.cl.groupprojectdelta.galtonboards.workspace.Simulation;
 import uk.ac.cam.cl.groupprojectdelta.galtonboards.workspace.Workspace;
 import uk.ac.cam.cl.groupprojectdelta.galtonboards.workspace.mouse.WorkspaceSelectable;
 import uk.ac.cam.cl.groupprojectdelta.galtonboards.graphics.Drawable;
+import uk.ac.cam.cl.groupprojectdelta.galtonboards.graphics.MeshBuffer;
 
 import java.util.*;
 
+/**
+ * A view onto one peg of a board. The peg's state lives in the board's PegGrid, so a Peg object is only created
+ * when something asks for one (e.g. for selection and the UI), and two Pegs for the same peg are equal.
+ */
 public class Peg implements WorkspaceSelectable, LogicalLocation, Drawable {
 
-    // The position of this peg in the board's grid
-    private Vector2i gridPos;
-    private Vector2f worldPos;
-
-    // The probability that a ball falls to the left
-    private float probability;
-
-    // The board that this peg is on
-    private Board board;
+    // The board that this peg is on, and the peg's index in it
+    private final Board board;
+    private final int index;
 
     private final float RADIUS = 0.4f;
 
-    private Set<Ball> ballsAtPeg;
-
-    List<String> ballsTaggedWith;
-
     /*
     =====================================================================
                              CONSTRUCTORS
@@ -36,30 +30,21 @@ public class Peg implements WorkspaceSelectable, LogicalLocation, Drawable {
      */
 
     /**
-     * Default constructor for a root peg with an equal left to right probability.
+     * Constructor for the root peg of a board.
      * @param board : Board - The board that this peg is a part of.
      */
     public Peg(Board board) {
-        this(0.5f, 0, board);
+        this(board, 0);
     }
 
     /**
-     * Construct a peg of index pegInd with a custom probability for where the balls fall.
-     * @param probability : float - The probability that a ball falls left (in the range of [0,1]).
-     * @param pegInd : int - The index of this peg in the board's peg list.
+     * Construct a view of the peg of index pegInd.
      * @param board : Board - The board that this peg is a part of.
+     * @param pegInd : int - The index of this peg in the board's peg list.
      */
-    public Peg(float probability, int pegInd, Board board) {
-        /* For triangle numbers: n(n+1)/2 = x where n = #pegs on bottom row,
-           therefore for row of peg with id x, row = floor((-1 + sqrt(1+8x)) / 2) */
-        int row = (int) Math.floor((-1 + Math.sqrt(1 + 8*pegInd)) / 2);
-        int rowInd = pegInd - ((row * (row+1)) / 2);
-        this.gridPos = new Vector2i(row,rowInd);
-        this.probability = probability;
+    Peg(Board board, int pegInd) {
         this.board = board;
-        this.ballsAtPeg = new HashSet<>();
-        this.ballsTaggedWith = new ArrayList<>();
-        setPosition();
+        this.index = pegInd;
     }
 
     /*
@@ -68,33 +53,13 @@ public class Peg implements WorkspaceSelectable, LogicalLocation, Drawable {
     =====================================================================
      */
 
-    /**
-     * Calculate the world position of this peg.
-     */
-    void setPosition() {
-        // Assume that the board's world point is measured from the very centre of the board
-        float xPos = (gridPos.y - gridPos.x * 0.5f) * Board.unitDistance + board.getWorldPos().x;
-        float yPos = (-1 - gridPos.x * (float) Math.sqrt(3) / 2f) * Board.unitDistance + board.getWorldPos().y + board.getDimensions().y / 2f;
-        this.worldPos = new Vector2f(xPos, yPos);
-    }
-
-
-
-    /**
-     * Helper method to convert a Vector2i grid position into a list index. Static to save on memory.
-     * @param gp : Vector2i - The grid position to convert.
-     * @return An index corresponding to gp in a list.
-     */
-    private static int gridPosToIndex(Vector2i gp) {
-        return (gp.x * (gp.x + 1)) / 2 + gp.y;
-    }
-
     /**
      * Allow for the probability of a peg to be changed.
      * @param probability : float - The new probability of the ball falling left.
      */
     public void setProbability(float probability) {
-        this.probability = probability;
+        board.getPegGrid().setProbability(index, probability);
+        board.invalidateCompiled();
     }
 
     /*
@@ -108,9 +73,7 @@ public class Peg implements WorkspaceSelectable, LogicalLocation, Drawable {
      * @return The peg to the left on the next row down. Null if no peg exists.
      */
     public Peg getLeft() {
-        //TODO - If this is computationally expensive, could save this as a variable
-        Vector2i leftPos = new Vector2i(gridPos.x + 1, gridPos.y);
-        return board.getPeg(gridPosToIndex(leftPos));
+        return board.getPeg(PegGrid.indexOf(getRow() + 1, getRowIndex()));
     }
 
     /**
@@ -118,9 +81,7 @@ public class Peg implements WorkspaceSelectable, LogicalLocation, Drawable {
      * @return The peg to the right on the next row down. Null if no peg exists.
      */
     public Peg getRight() {
-        //TODO - If this is computationally expensive, could save this as a variable
-        Vector2i rightPos = new Vector2i(gridPos.x + 1, gridPos.y + 1);
-        return board.getPeg(gridPosToIndex(rightPos));
+        return board.getPeg(PegGrid.indexOf(getRow() + 1, getRowIndex() + 1));
     }
 
     /**
@@ -128,7 +89,7 @@ public class Peg implements WorkspaceSelectable, LogicalLocation, Drawable {
      * @return Probability that a ball falls to the left.
      */
     public float leftProb() {
-        return probability;
+        return board.getPegGrid().getProbability(index);
     }
 
     /**
@@ -136,7 +97,7 @@ public class Peg implements WorkspaceSelectable, LogicalLocation, Drawable {
      * @return Probability that a ball falls to the right.
      */
     public float rightProb() {
-        return 1-probability;
+        return 1-leftProb();
     }
 
     /**
@@ -144,7 +105,23 @@ public class Peg implements WorkspaceSelectable, LogicalLocation, Drawable {
      * @return The grid position.
      */
     public Vector2i getGridPos() {
-        return new Vector2i(gridPos);
+        return new Vector2i(getRow(), getRowIndex());
+    }
+
+    /**
+     * Getter for the index of this peg in the board's peg list.
+     * @return The index.
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    private int getRow() {
+        return PegGrid.rowOf(index);
+    }
+
+    private int getRowIndex() {
+        return PegGrid.columnOf(index);
     }
 
     /**
@@ -152,37 +129,61 @@ public class Peg implements WorkspaceSelectable, LogicalLocation, Drawable {
      * @return The peg's world position.
      */
     public Vector2f getWorldPos() {
-        return new Vector2f(worldPos);
+        // Assume that the board's world point is measured from the very centre of the board
+        int row = getRow();
+        Vector2f boardPos = board.getWorldPos();
+        float xPos = offsetX(row, getRowIndex()) + boardPos.x;
+        float yPos = offsetY(row) + boardPos.y + board.getDimensions().y / 2f;
+        return new Vector2f(xPos, yPos);
     }
 
-    @Override
-    public Set<Ball> balls() {
-        return ballsAtPeg;
+    /**
+     * Work out how far right of the board's world position a peg is, without making a Peg.
+     * @param row : int - The row the peg is on.
+     * @param rowIndex : int - How far along its row the peg is.
+     * @return The horizontal offset.
+     */
+    static float offsetX(int row, int rowIndex) {
+        return (rowIndex - row * 0.5f) * Board.unitDistance;
     }
 
-    @Override
-    public void addBall(Ball ball) {
-        ballsAtPeg.add(ball);
+    /**
+     * Work out how far above the top of the board a peg is (so the offset is negative), without making a Peg.
+     * @param row : int - The row the peg is on.
+     * @return The vertical offset.
+     */
+    static float offsetY(int row) {
+        return (-1 - row * (float) Math.sqrt(3) / 2f) * Board.unitDistance;
     }
 
+    /**
+     * Count the balls at this peg. Pegs don't keep track of their balls, so this asks the board's simulation.
+     * @return The number of balls at the peg.
+     */
     @Override
-    public void removeBall(Ball ball) {
-        ballsAtPeg.remove(ball);
+    public int getBallCount() {
+        Simulation simulation = board.getSimulation();
+        if (simulation == null) {
+            return 0;
+        }
+        return simulation.getBalls().countAtPeg(board, index);
     }
 
     @Override
     public List<String> getGivenTags() {
-        return ballsTaggedWith;
+        return board.getPegGrid().getGivenTags(index);
     }
 
     @Override
     public void setGivenTags(List<String> newTagList) {
-        ballsTaggedWith = newTagList;
+        board.getPegGrid().setGivenTags(index, newTagList);
+        board.invalidateCompiled();
     }
 
     @Override
     public void clearGivenTags() {
-        ballsTaggedWith = new ArrayList<>();
+        board.getPegGrid().setGivenTags(index, new ArrayList<>());
+        board.invalidateCompiled();
     }
 
     /**
@@ -190,8 +191,8 @@ public class Peg implements WorkspaceSelectable, LogicalLocation, Drawable {
      * @return The output column (implicit bucket) index for output to the left.
      */
     public int getLeftColumnIndex() {
-        if (gridPos.x == board.getIsoGridWidth() - 1) {
-            return (gridPos.y);
+        if (getRow() == board.getIsoGridWidth() - 1) {
+            return getRowIndex();
         }
         if (board.getIsoGridWidth() == 0) {
             return 0;
@@ -205,8 +206,8 @@ public class Peg implements WorkspaceSelectable, LogicalLocation, Drawable {
      * @return The output column (implicit bucket) index for output to the right.
      */
     public int getRightColumnIndex() {
-        if (gridPos.x == board.getIsoGridWidth() - 1) {
-            return (gridPos.y + 1);
+        if (getRow() == board.getIsoGridWidth() - 1) {
+            return getRowIndex() + 1;
         }
         // This peg is not on the last row so don't return a valid bucket
         return -1;
@@ -265,55 +266,51 @@ public class Peg implements WorkspaceSelectable, LogicalLocation, Drawable {
     }
 
     @Override
-    public List<Float> getMesh(float time) {
-
-        List<Float> points;
-        Vector2f bound = new Vector2f();
-
-        Vector2f dimensions = new Vector2f(0.1f);
-        worldPos.add(dimensions, bound);
-
-        //  +----+
-        //  |1 / |
-        //  | / 2|
-        //  +----+
-
-        float ratio = probability;
+    public boolean equals(Object o) {
+        if (!(o instanceof Peg)) {
+            return false;
+        }
+        Peg other = (Peg) o;
+        return other.board == board && other.index == index;
+    }
 
-        points = new ArrayList<>(Arrays.asList(
-                // Face 1
-                worldPos.x, worldPos.y, z,
-                bound.x, worldPos.y, z,
-                ratio * bound.x + (1 - ratio) * worldPos.x, bound.y, z
-        ));
+    @Override
+    public int hashCode() {
+        return System.identityHashCode(board) * 31 + index;
+    }
 
-        return points;
+    @Override
+    public int getVertexCount() {
+        return 4;
     }
 
     @Override
-    public List<Float> getUV() {
+    public void writeMesh(float time, MeshBuffer buffer) {
+        Vector2f worldPos = getWorldPos();
+        writeMesh(buffer, worldPos.x, worldPos.y, leftProb());
+    }
 
+    /**
+     * Write the triangle for a peg, whose top leans towards the side balls are more likely to fall.
+     * The board uses this to draw its pegs straight from its compiled geometry, without making Peg objects.
+     * @param buffer : MeshBuffer - The buffer to write into.
+     * @param x : float - The x coordinate of the peg.
+     * @param y : float - The y coordinate of the peg.
+     * @param ratio : float - The probability of a ball falling left at the peg.
+     */
+    static void writeMesh(MeshBuffer buffer, float x, float y, float ratio) {
+        final float size = 0.1f;
         final float top = 0.5f;
         final float bottom = 0.75f;
         final float left = 0.75f;
         final float right = 1f;
 
-        List<Float> UVs = List.of(
-                // face 1
-                top,left,
-                bottom,left,
-                bottom,right
-        );
-        return UVs;
-    }
-
-    @Override
-    public List<Float> getColourTemplate() {
-        return List.of(
-                1f,1f,1f,
-                1f,1f,1f,
-                1f,1f,1f
-        );
+        float boundX = x + size;
+        float boundY = y + size;
+        buffer.vertex(x, y, z, top, left, 1f, 1f, 1f);
+        buffer.vertex(boundX, y, z, bottom, left, 1f, 1f, 1f);
+        buffer.vertex(ratio * boundX + (1 - ratio) * x, boundY, z, bottom, right, 1f, 1f, 1f);
+        buffer.closeTriangle();
     }
 
         /*
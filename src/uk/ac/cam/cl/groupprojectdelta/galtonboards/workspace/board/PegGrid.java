@@ -0,0 +1,185 @@
+package uk.ac.cam.cl.groupprojectdelta.galtonboards.workspace.board;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Compact storage for the pegs of a board. Pegs are identified by their index (0 is the root, increasing from
+ * left to right, row by row), and their grid and world positions are worked out from it. A probability is only
+ * stored per peg once one differs from the board's default, and tags are only stored for the pegs that have them,
+ * so a board with millions of pegs costs next to nothing until it is edited. Which balls are at a peg isn't stored
+ * at all, the BallStore already knows. Peg objects are just views onto this, created when they're asked for.
+ */
+final class PegGrid {
+    private int size;
+    private float defaultProbability;
+
+    // The probability of falling left for every peg, null while every peg has the default
+    private float[] probabilities;
+
+    // Only the pegs that hand out tags have an entry
+    private final Map<Integer, List<String>> givenTags = new HashMap<>();
+
+    /**
+     * Create a grid of pegs that all have the same probability.
+     * @param size : int - The number of pegs.
+     * @param defaultProbability : float - The probability of a ball falling left at each peg.
+     */
+    PegGrid(int size, float defaultProbability) {
+        this.size = size;
+        this.defaultProbability = defaultProbability;
+    }
+
+    /**
+     * Getter for the number of pegs.
+     * @return The number of pegs.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Getter for the probability pegs have unless they were given their own.
+     * @return The probability of a ball falling left.
+     */
+    float getDefaultProbability() {
+        return defaultProbability;
+    }
+
+    /**
+     * Add or remove pegs at the end of the grid. New pegs have no tags.
+     * @param newSize : int - The new number of pegs.
+     * @param probability : float - The probability of a ball falling left at each new peg.
+     */
+    void resize(int newSize, float probability) {
+        if (probabilities == null && newSize > size && probability != defaultProbability) {
+            probabilities = new float[size];
+            Arrays.fill(probabilities, defaultProbability);
+        }
+        if (probabilities != null) {
+            int oldSize = size;
+            probabilities = Arrays.copyOf(probabilities, newSize);
+            if (newSize > oldSize) {
+                Arrays.fill(probabilities, oldSize, newSize, probability);
+            }
+        }
+        if (newSize < size) {
+            givenTags.keySet().removeIf(peg -> peg >= newSize);
+        }
+        size = newSize;
+    }
+
+    float getProbability(int peg) {
+        return probabilities == null ? defaultProbability : probabilities[peg];
+    }
+
+    /**
+     * Check whether every peg has the same probability, so it can be read once with getProbability(0).
+     * @return True if no peg's probability has been set apart from the others.
+     */
+    boolean isUniform() {
+        return probabilities == null;
+    }
+
+    /**
+     * Give every peg the same probability, without storing one per peg.
+     * @param probability : float - The probability of a ball falling left at each peg.
+     */
+    void fill(float probability) {
+        defaultProbability = probability;
+        probabilities = null;
+    }
+
+    /**
+     * Set the probability of a ball falling left at one peg.
+     * @param peg : int - The index of the peg.
+     * @param probability : float - The new probability.
+     */
+    void setProbability(int peg, float probability) {
+        if (probabilities == null) {
+            if (probability == defaultProbability) {
+                return;
+            }
+            probabilities = new float[size];
+            Arrays.fill(probabilities, defaultProbability);
+        }
+        probabilities[peg] = probability;
+    }
+
+    List<String> getGivenTags(int peg) {
+        return givenTags.getOrDefault(peg, Collections.emptyList());
+    }
+
+    /**
+     * Check whether any peg hands out tags.
+     * @return True if at least one peg has given tags.
+     */
+    boolean hasGivenTags() {
+        return !givenTags.isEmpty();
+    }
+
+    /**
+     * Get the pegs that hand out tags, so they can be visited without going through every peg.
+     * @return The indices of the pegs with given tags, a read-only view.
+     */
+    Set<Integer> getTaggedPegs() {
+        return Collections.unmodifiableSet(givenTags.keySet());
+    }
+
+    void setGivenTags(int peg, List<String> tags) {
+        if (tags.isEmpty()) {
+            givenTags.remove(peg);
+        } else {
+            givenTags.put(peg, tags);
+        }
+    }
+
+    /*
+    =====================================================================
+                             GRID POSITIONS
+    =====================================================================
+     */
+
+    /**
+     * Get the row a peg is on (the root is on row 0).
+     * For triangle numbers: n(n+1)/2 = x where n = #pegs on bottom row,
+     * therefore for row of peg with id x, row = floor((-1 + sqrt(1+8x)) / 2)
+     * @param peg : int - The index of the peg.
+     * @return The row.
+     */
+    static int rowOf(int peg) {
+        int row = (int) Math.floor((-1 + Math.sqrt(1 + 8.0 * peg)) / 2);
+        // Correct for rounding in the square root on very large grids
+        while ((long) row * (row + 1) / 2 > peg) {
+            row--;
+        }
+        while ((long) (row + 1) * (row + 2) / 2 <= peg) {
+            row++;
+        }
+        return row;
+    }
+
+    /**
+     * Get how far along its row a peg is (the leftmost peg of each row is 0).
+     * @param peg : int - The index of the peg.
+     * @return The position in the row.
+     */
+    static int columnOf(int peg) {
+        int row = rowOf(peg);
+        return peg - row * (row + 1) / 2;
+    }
+
+    /**
+     * Convert a grid position into a peg index.
+     * @param row : int - The row.
+     * @param column : int - The position in the row.
+     * @return The index of the peg.
+     */
+    static int indexOf(int row, int column) {
+        return row * (row + 1) / 2 + column;
+    }
+}
@@ -1,9 +1,6 @@
 package uk.ac.cam.cl.groupprojectdelta.galtonboards.workspace.board;
 
 import org.joml.Vector2f;
-import org.joml.Vector2i;
-import uk.ac.cam.cl.groupprojectdelta.galtonboards.workspace.Simulation;
-import uk.ac.cam.cl.groupprojectdelta.galtonboards.workspace.Workspace;
 
 import java.util.List;
 
@@ -50,15 +47,18 @@ public class UniformBoard extends Board{
      * Reset all of the peg values so that they follow the uniform distribution.
      */
     private void fixAllPegs() {
+        // Set the grid directly rather than through a Peg for each peg
+        PegGrid grid = getPegGrid();
+        grid.fill(0f);
         float denominator = steps;
-        for (Peg peg : getPegs()) {
-            Vector2i gp = peg.getGridPos();
-            if(gp.y == 0) {
-                peg.setProbability(1f-(1f/denominator));
-                denominator--;
-            }
-            else { peg.setProbability(0f); }
+        // Only the first peg of each row lets balls past, row r starts at peg r(r+1)/2
+        int rowStart = 0;
+        for (int row = 0; rowStart < grid.size(); row++) {
+            grid.setProbability(rowStart, 1f-(1f/denominator));
+            denominator--;
+            rowStart += row + 1;
         }
+        invalidateCompiled();
     }
 
     /**
@@ -112,47 +112,24 @@ public class UniformBoard extends Board{
      */
     public void setSteps(int steps) {
         if (steps >= 0) {
-            int rowDifference = steps-this.steps;
-            if (rowDifference > 0) {
-                // Keep adding rows until this.steps = steps
-                for (int i = 0; i < rowDifference; i++) {
-                    addRow();
-                }
-            }
-            else if (rowDifference < 0) {
-                // Keep removing rows until this.steps = steps
-                for (int i = 0; i < -rowDifference; i++) {
-                    removeRow();
-                }
-            }
+            resize(steps - 1);
         }
         else { System.err.println(steps + " is not a valid number of steps in the Uniform distribution."); }
     }
 
     /**
-     * Add a new row of pegs when editing the board. This method should be called from the UI "plus" button.
+     * Change the number of rows of pegs (and so the number of steps) in one go.
+     * @param newIsoGridWidth : int - How many pegs the bottom row should have.
      */
     @Override
-    public void addRow() {
-        if (Workspace.workspace.getSimulation().getSimulationState() == Simulation.SimulationState.Stopped) {
-            super.addRow();
-            steps++;
+    public void resize(int newIsoGridWidth) {
+        int oldIsoGridWidth = getIsoGridWidth();
+        super.resize(newIsoGridWidth);
+        if (getIsoGridWidth() != oldIsoGridWidth) {
+            steps = getIsoGridWidth() + 1;
             // Correct the probability values of the pegs
             fixAllPegs();
-            // Add tag to the new bucket
-            fixAllBucketTags();
-        }
-    }
-
-    /**
-     * Remove a row of pegs when editing the board. This method should be called from the UI "minus" button.
-     */
-    @Override
-    public void removeRow() {
-        if (Workspace.workspace.getSimulation().getSimulationState() == Simulation.SimulationState.Stopped) {
-            super.removeRow();
-            steps--;
-            fixAllPegs();
+            // Add tags to the new buckets
             fixAllBucketTags();
         }
     }
@@ -237,6 +214,39 @@ public class UniformBoard extends Board{
     @Override
     public Distribution getDistribution() {return Distribution.Uniform;}
 
+    /**
+     * Get an exact uniform sampler, as long as no peg has been edited since fixAllPegs().
+     * @return The sampler, or null if a peg has been edited.
+     */
+    @Override
+    public DistributionSampler getSampler() {
+        // Read the peg grid directly, this is called on every recompile and the board may have millions of pegs
+        PegGrid grid = getPegGrid();
+        if (grid.hasGivenTags()) {
+            return null;
+        }
+        // If every peg is the same, the root and the first peg after it are enough to tell
+        int checked = grid.isUniform() ? Math.min(grid.size(), 2) : grid.size();
+        float denominator = getIsoGridWidth() + 1;
+        int row = 0;
+        int rowStart = 0;
+        for (int i = 0; i < checked; i++) {
+            if (i - rowStart > row) {
+                rowStart = i;
+                row++;
+            }
+            float expected = 0f;
+            if (i == rowStart) {
+                expected = 1f-(1f/denominator);
+                denominator--;
+            }
+            if (grid.getProbability(i) != expected) {
+                return null;
+            }
+        }
+        return new UniformSampler(getIsoGridWidth() + 1);
+    }
+
     @Override
     public String toString() {
         return "Uniform board of width " + super.isoGridWidth;
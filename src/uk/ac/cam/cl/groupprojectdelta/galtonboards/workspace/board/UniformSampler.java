@@ -0,0 +1,34 @@
+package uk.ac.cam.cl.groupprojectdelta.galtonboards.workspace.board;
+
+import uk.ac.cam.cl.groupprojectdelta.galtonboards.workspace.RandomSource;
+
+/**
+ * Every column is equally likely, so the column is a single direct draw.
+ */
+public final class UniformSampler implements DistributionSampler {
+    private final int columns;
+
+    /**
+     * Create a sampler over a number of columns.
+     * @param columns : int - How many columns there are, at least 1.
+     */
+    public UniformSampler(int columns) {
+        this.columns = Math.max(1, columns);
+    }
+
+    @Override
+    public int sample(RandomSource random) {
+        // The top 32 bits scaled to [0, columns), with a bias of at most columns / 2^32
+        return (int) (((random.nextLong() >>> 32) * columns) >>> 32);
+    }
+
+    @Override
+    public double pmf(int column) {
+        return column >= 0 && column < columns ? 1.0 / columns : 0;
+    }
+
+    @Override
+    public int getColumnCount() {
+        return columns;
+    }
+}
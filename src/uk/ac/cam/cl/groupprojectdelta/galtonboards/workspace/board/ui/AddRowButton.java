@@ -1,12 +1,9 @@
 package uk.ac.cam.cl.groupprojectdelta.galtonboards.workspace.board.ui;
 
 import org.joml.Vector2f;
+import uk.ac.cam.cl.groupprojectdelta.galtonboards.graphics.MeshBuffer;
 import uk.ac.cam.cl.groupprojectdelta.galtonboards.workspace.board.Board;
 
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
-
 public class AddRowButton extends WorkspaceButton {
   private final Board board;
 
@@ -26,23 +23,7 @@ public class AddRowButton extends WorkspaceButton {
   }
 
   @Override
-  public List<Float> getUV() {
-    final float top = 0.0f;
-    final float bottom = 0.25f;
-    final float left = 0.0f;
-    final float right = 0.25f;
-
-    List<Float> UVs = List.of(
-            // face 1
-            top,left,
-            bottom,left,
-            bottom,right,
-            // face 2
-            top,left,
-            top,right,
-            bottom,right
-    );
-    return UVs;
+  public void writeMesh(float time, MeshBuffer buffer) {
+    writeMesh(buffer, 0f, 0.25f, 0f, 0.25f);
   }
-
 }
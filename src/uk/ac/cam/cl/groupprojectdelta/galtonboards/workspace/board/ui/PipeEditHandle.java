@@ -1,15 +1,13 @@
 package uk.ac.cam.cl.groupprojectdelta.galtonboards.workspace.board.ui;
 
 import org.joml.Vector2f;
+import uk.ac.cam.cl.groupprojectdelta.galtonboards.graphics.MeshBuffer;
 import uk.ac.cam.cl.groupprojectdelta.galtonboards.graphics.UserInterface;
 import uk.ac.cam.cl.groupprojectdelta.galtonboards.workspace.board.Board;
 import uk.ac.cam.cl.groupprojectdelta.galtonboards.workspace.board.Bucket;
 import uk.ac.cam.cl.groupprojectdelta.galtonboards.workspace.mouse.WorkspaceClickable;
 import uk.ac.cam.cl.groupprojectdelta.galtonboards.workspace.mouse.WorkspaceDraggable;
 
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
 
 /**
  * This class represent the handles at the bottom of every bucket.
@@ -41,51 +39,32 @@ public class PipeEditHandle extends WorkspaceButton implements WorkspaceDraggabl
   }
 
   @Override
-  public List<Float> getMesh(float time) {
-    Vector2f bound = new Vector2f();
-    Vector2f position = getPosition();
-
-    Vector2f dimensions = new Vector2f(size);
-    position.add(dimensions, bound);
-
-    return new ArrayList<>(Arrays.asList(
-        (position.x + bound.x) / 2, position.y, z,
-        position.x, bound.y, z,
-        bound.x, bound.y, z
-    ));
+  public int getVertexCount() {
+    return 4;
   }
 
   @Override
-  public List<Float> getUV() {
+  public void writeMesh(float time, MeshBuffer buffer) {
     final float top = 0.5f;
     final float bottom = 0.75f;
     final float left = 0.0f;
     final float right = 0.25f;
 
-    return List.of(
-        top, left,
-        bottom, left,
-        bottom, right
-    );
-  }
-
-  @Override
-  public List<Float> getColourTemplate() {
-    if (selected) {
-      return listFromColors(0.3f, 0.8f, 0.8f);
-    } else if (hover) {
-      return listFromColors(0.3f, 0.8f, 0.8f);
-    } else {
-      return listFromColors(0.75f, 0.75f, 0.75f);
+    float red = 0.75f;
+    float green = 0.75f;
+    float blue = 0.75f;
+    if (selected || hover) {
+      red = 0.3f;
+      green = blue = 0.8f;
     }
-  }
 
-  private static List<Float> listFromColors(float red, float green, float blue) {
-    return List.of(
-        red, green, blue,
-        red, green, blue,
-        red, green, blue
-    );
+    Vector2f position = getPosition();
+    float boundX = position.x + size;
+    float boundY = position.y + size;
+    buffer.vertex((position.x + boundX) / 2, position.y, z, top, left, red, green, blue);
+    buffer.vertex(position.x, boundY, z, bottom, left, red, green, blue);
+    buffer.vertex(boundX, boundY, z, bottom, right, red, green, blue);
+    buffer.closeTriangle();
   }
 
   @Override
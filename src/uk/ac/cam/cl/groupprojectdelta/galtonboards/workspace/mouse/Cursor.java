@@ -1,10 +1,8 @@
 package uk.ac.cam.cl.groupprojectdelta.galtonboards.workspace.mouse;
 
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
 import org.joml.Vector2f;
 import uk.ac.cam.cl.groupprojectdelta.galtonboards.graphics.Drawable;
+import uk.ac.cam.cl.groupprojectdelta.galtonboards.graphics.MeshBuffer;
 
 public class Cursor implements Drawable {
   Vector2f position = new Vector2f();
@@ -14,62 +12,14 @@ public class Cursor implements Drawable {
   }
 
   @Override
-  public List<Float> getMesh(float time) {
-    List<Float> points = new ArrayList<>();
-    Vector2f bound = new Vector2f();
-
-    Vector2f dimensions = new Vector2f(0.1f, 0.1f);
-    position.add(dimensions, bound);
-
-    //  +----+
-    //  |1 / |
-    //  | / 2|
-    //  +----+
-
-    points = new ArrayList<>(Arrays.asList(
-        // Face 1
-        position.x, position.y, z,
-        bound.x, position.y, z,
-        bound.x, bound.y, z,
-
-        // Face 2
-        position.x, position.y, z,
-        position.x, bound.y, z,
-        bound.x, bound.y, z
-    ));
-
-    return points;
-  }
-
-  @Override
-  public List<Float> getUV() {
-    final float top = 0.75f;
-    final float bottom = 1f;
-    final float left = 0.75f;
-    final float right = 1f;
-
-    List<Float> UVs = List.of(
-        // face 1
-        top,left,
-        bottom,left,
-        bottom,right,
-        // face 2
-        top,left,
-        top,right,
-        bottom,right
-    );
-    return UVs;
+  public int getVertexCount() {
+    return 4;
   }
 
   @Override
-  public List<Float> getColourTemplate() {
-    return List.of(
-            1f,1f,1f,
-            1f,1f,1f,
-            1f,1f,1f,
-            1f,1f,1f,
-            1f,1f,1f,
-            1f,1f,1f
-    );
+  public void writeMesh(float time, MeshBuffer buffer) {
+    final float size = 0.1f;
+    buffer.quad(position.x, position.y, position.x + size, position.y + size, z,
+        0.75f, 1f, 0.75f, 1f, 1f, 1f, 1f);
   }
 }
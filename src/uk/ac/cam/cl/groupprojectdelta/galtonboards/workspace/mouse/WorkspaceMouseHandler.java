@@ -1,10 +1,7 @@
 package uk.ac.cam.cl.groupprojectdelta.galtonboards.workspace.mouse;
 
-import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collection;
 import java.util.LinkedList;
-import java.util.List;
 import org.joml.Vector2f;
 import org.joml.Vector3f;
 import org.liquidengine.legui.component.Label;
@@ -13,6 +10,7 @@ import org.liquidengine.legui.input.Mouse;
 import org.lwjgl.system.CallbackI;
 import uk.ac.cam.cl.groupprojectdelta.galtonboards.graphics.Camera;
 import uk.ac.cam.cl.groupprojectdelta.galtonboards.graphics.Drawable;
+import uk.ac.cam.cl.groupprojectdelta.galtonboards.graphics.MeshBuffer;
 import uk.ac.cam.cl.groupprojectdelta.galtonboards.graphics.UserInterface;
 import uk.ac.cam.cl.groupprojectdelta.galtonboards.workspace.Workspace;
 import uk.ac.cam.cl.groupprojectdelta.galtonboards.workspace.board.Board;
@@ -173,69 +171,23 @@ public class WorkspaceMouseHandler implements Drawable {
   }
 
   @Override
-  public List<Float> getMesh(float time) {
-    List<Float> list;
-    float zEpsilon = z - 1E-3f;
-
-    if (state == State.REGION) {
-      list = List.of(
-          dragStart.x, dragStart.y, zEpsilon,
-          dragStart.x, currentPos.y, zEpsilon,
-          currentPos.x, dragStart.y, zEpsilon,
-
-          currentPos.x, currentPos.y, zEpsilon,
-          currentPos.x, dragStart.y, zEpsilon,
-          dragStart.x, currentPos.y, zEpsilon
-      );
-    } else {
-      list = new ArrayList<>();
-    }
-    return list;
+  public int getVertexCount() {
+    return state == State.REGION ? 4 : 0;
   }
 
   @Override
-  public List<Float> getUV() {
-    List<Float> list;
-    if (state == State.REGION) {
-      //todo: fix the graphics for this region selection
-
-      final float top = 0.5f;
-      final float bottom = 0.75f;
-      final float left = 0.0f;
-      final float right = 0.25f;
-
-      list = new ArrayList<>(Arrays.asList(
-          // face 1
-          top, left,
-          bottom, left,
-          bottom, right,
-          // face 2
-          top, left,
-          top, right,
-          bottom, right
-      ));
-    } else {
-      list = new ArrayList<>();
+  public void writeMesh(float time, MeshBuffer buffer) {
+    if (state != State.REGION) {
+      return;
     }
-    return list;
-  }
+    //todo: fix the graphics for this region selection
+    final float top = 0.5f;
+    final float bottom = 0.75f;
+    final float left = 0.0f;
+    final float right = 0.25f;
+    float zEpsilon = z - 1E-3f;
 
-  @Override
-  public List<Float> getColourTemplate() {
-    List<Float> list;
-    if (state == State.REGION) {
-      list = new ArrayList<>(Arrays.asList(
-          0.5f, 0.7f, 1f,
-          0.5f, 0.7f, 1f,
-          0.5f, 0.7f, 1f,
-
-          0.5f, 0.7f, 1f,
-          0.5f, 0.7f, 1f,
-          0.5f, 0.7f, 1f
-      ));
-    } else {
-      list = new ArrayList<>();
-    }
-    return list;
+    buffer.quad(dragStart.x, dragStart.y, currentPos.x, currentPos.y, zEpsilon,
+        top, bottom, left, right, 0.5f, 0.7f, 1f);
   }
 }